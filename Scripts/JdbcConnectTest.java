@@ -5,29 +5,83 @@ Tests JDBC4 Connectivity with a database by printing database information.
 
 Usage: bash $(basename $0) <path-to-jdbc-jar> <options>
 
-<path-to-jdbc-jar>  Fully-qualified path to JDBC4 driver jar.
+<path-to-jdbc-jar>  Fully-qualified path to JDBC4 driver jar (jars it needs
+                    can follow, separated by :).
 <options>           Program options (run with -h flag for details).  
 ENDOFHELP
   exit 1
 fi
 
-# Compile the program.
+# Compile the program if it has changed since it was last compiled.
 #
-javac -d /tmp/.java/classes $0
+if [[ $0 -nt /tmp/.java/classes/$(basename ${0%.*}).class ]]; then
+  javac -d /tmp/.java/classes $0
+fi
 
 # Run the compiled program only if compilation succeeds.
 #
 if [[ $? -eq 0 ]]; then
   JDBC_JAR=$1
   shift
-  java -cp $JDBC_JAR:/tmp/.java/classes $(basename ${0%.*}) "$@"
+  java -cp /tmp/.java/classes $(basename ${0%.*}) -j $JDBC_JAR "$@"
 fi
 exit
 */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.Console;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
 
 /**
  * Connects to a database using command-line arguments and display information
@@ -35,8 +89,61 @@ import java.sql.DriverManager;
  */
 class JdbcConnectTest {
 
+  private static final int DEFAULT_CONCURRENCY = 16;
+
+  private static final int DEFAULT_TIMEOUT_SECONDS = 30;
+
+  private static final int DEFAULT_DURATION_SECONDS = 10;
+
+  private static final String DEFAULT_FETCH_SIZES = "0,10,100,1000,10000";
+
+  private static final String DEFAULT_BATCH_SIZES = "1,10,100,1000";
+
+  private static final int DEFAULT_INSERT_ROWS = 10000;
+
+  private static final int DEFAULT_EXPORT_FETCH_SIZE = 1000;
+
+  private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
+  private static final String STDOUT = "-";
+
+  private static final String INDEX_DIR = ".cache/JdbcConnectTest";
+
+  private static final String DRIVER_INDEX = "drivers";
+
+  private static final String DRIVER_SERVICE = "META-INF/services/java.sql.Driver";
+
   /**
    * Main method.
+   * 
+   * <p>
+   * Drivers are loaded from the jars given with {@code -j} before anything
+   * else. See {@link #loadDrivers(String)}.
+   * 
+   * <p>
+   * If the {@code -f} option is set, every target in the given file is tested
+   * instead of the one given by {@code -U}. See {@link #sweep(String, int, int,
+   * boolean)}.
+   * 
+   * <p>
+   * If the {@code -t} option is set, connecting is repeated and timed instead of
+   * printing database information. See {@link #profile(String, String, String,
+   * int, String, long)}.
+   * 
+   * <p>
+   * If the {@code -k} option is set, that many connections are held open and
+   * queried at a steady rate. See {@link #stress(String, String, String, int,
+   * int, int, String)}.
+   * 
+   * <p>
+   * If the {@code -S} or {@code -I} option is set, the throughput of a query
+   * or an insert is measured for a number of fetch or batch sizes. See
+   * {@link #benchmark(Connection, String, int[], String, int[], int)}.
+   * 
+   * <p>
+   * If the {@code -E} option is set, a query's rows are written out as CSV or
+   * JSON Lines. See {@link #export(Connection, String, int, String,
+   * WritableByteChannel, boolean)}.
    */
   public static void main(String... args) {
 
@@ -49,16 +156,84 @@ class JdbcConnectTest {
     String password = null;
     String databaseUrl = null;
     boolean quiet = false;
+    String targetsFile = null;
+    int concurrency = DEFAULT_CONCURRENCY;
+    int timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+    int repetitions = 0;
+    String validationQuery = null;
+    int connections = 0;
+    int rate = 0;
+    int durationSeconds = DEFAULT_DURATION_SECONDS;
+    String selectSql = null;
+    String insertSql = null;
+    String fetchSizes = null;
+    String exportSql = null;
+    String exportFormat = "csv";
+    String outputFile = STDOUT;
+    List<String> driverJars = new ArrayList<>();
+    String batchSizes = DEFAULT_BATCH_SIZES;
+    int insertRows = DEFAULT_INSERT_ROWS;
 
     while (argIdx < args.length) {
       String arg = args[argIdx];
       switch (arg) {
+        case "-B":
+          batchSizes = args[++argIdx];
+          break;
+        case "-c":
+          concurrency = parsePositive(arg, args[++argIdx]);
+          break;
+        case "-d":
+          durationSeconds = parsePositive(arg, args[++argIdx]);
+          break;
+        case "-E":
+          exportSql = args[++argIdx];
+          break;
+        case "-e":
+          exportFormat = args[++argIdx];
+          break;
+        case "-F":
+          fetchSizes = args[++argIdx];
+          break;
+        case "-f":
+          targetsFile = args[++argIdx];
+          break;
         case "-h":
           showUsageAndExit(2);
           break;
+        case "-I":
+          insertSql = args[++argIdx];
+          break;
+        case "-j":
+          driverJars.add(args[++argIdx]);
+          break;
+        case "-k":
+          connections = parsePositive(arg, args[++argIdx]);
+          break;
+        case "-n":
+          insertRows = parsePositive(arg, args[++argIdx]);
+          break;
+        case "-o":
+          outputFile = args[++argIdx];
+          break;
+        case "-Q":
+          validationQuery = args[++argIdx];
+          break;
         case "-q":
           quiet = true;
           break;
+        case "-r":
+          rate = parsePositive(arg, args[++argIdx]);
+          break;
+        case "-S":
+          selectSql = args[++argIdx];
+          break;
+        case "-t":
+          repetitions = parsePositive(arg, args[++argIdx]);
+          break;
+        case "-T":
+          timeoutSeconds = parsePositive(arg, args[++argIdx]);
+          break;
         case "-U":
           databaseUrl = args[++argIdx];
           break;
@@ -76,6 +251,26 @@ class JdbcConnectTest {
       argIdx++;
     }
 
+    long driverLoadNanos = System.nanoTime();
+    try {
+      for (String jars : driverJars) {
+        loadDrivers(jars);
+      }
+      driverLoadNanos = System.nanoTime() - driverLoadNanos;
+    } catch (Exception e) {
+      System.err.printf("Error, exiting! %s%n", e.getMessage());
+      System.exit(1);
+    }
+
+    if (!isNullOrEmpty(targetsFile)) {
+      try {
+        System.exit(sweep(targetsFile, concurrency, timeoutSeconds, quiet) ? 0 : 1);
+      } catch (Exception e) {
+        System.err.printf("Error, exiting! %s%n", e.getMessage());
+        System.exit(1);
+      }
+    }
+
     if (isNullOrEmpty(databaseUrl)) {
       System.err.printf("No -U option set!%n");
       showUsageAndExit(1);
@@ -94,6 +289,68 @@ class JdbcConnectTest {
       }
     }
 
+    if (connections > 0) {
+      try {
+        DriverManager.setLoginTimeout(timeoutSeconds);
+        System.exit(stress(databaseUrl, username, password, connections,
+          rate > 0 ? rate : connections, durationSeconds, validationQuery) ? 0 : 1);
+      } catch (Exception e) {
+        System.err.printf("Error, exiting! %s%n", e.getMessage());
+        System.exit(1);
+      }
+    }
+
+    if (!isNullOrEmpty(exportSql)) {
+      if (!exportFormat.equals("csv") && !exportFormat.equals("jsonl")) {
+        System.err.printf("Option -e needs csv or jsonl, got %s%n", exportFormat);
+        showUsageAndExit(1);
+      }
+      int[] fetch = parseSizes("-F", fetchSizes == null
+        ? String.valueOf(DEFAULT_EXPORT_FETCH_SIZE) : fetchSizes, 0);
+      if (fetch.length != 1) {
+        System.err.printf("Option -F needs a single fetch size with -E, got %s%n",
+          fetchSizes);
+        showUsageAndExit(1);
+      }
+      try (Connection conn = DriverManager.getConnection(databaseUrl, username,
+             password);
+          WritableByteChannel channel = outputFile.equals(STDOUT)
+            ? new FileOutputStream(FileDescriptor.out).getChannel()
+            : FileChannel.open(Path.of(outputFile), StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        export(conn, exportSql, fetch[0], exportFormat, channel, quiet);
+        System.exit(0);
+      } catch (Exception e) {
+        System.err.printf("Error, exiting! %s%n", e.getMessage());
+        System.exit(1);
+      }
+    }
+
+    if (!isNullOrEmpty(selectSql) || !isNullOrEmpty(insertSql)) {
+      int[] fetch = parseSizes("-F", fetchSizes == null ? DEFAULT_FETCH_SIZES
+        : fetchSizes, 0);
+      int[] batch = parseSizes("-B", batchSizes, 1);
+      try (Connection conn = DriverManager.getConnection(databaseUrl, username,
+             password)) {
+        benchmark(conn, selectSql, fetch, insertSql, batch, insertRows);
+        System.exit(0);
+      } catch (Exception e) {
+        System.err.printf("Error, exiting! %s%n", e.getMessage());
+        System.exit(1);
+      }
+    }
+
+    if (repetitions > 0) {
+      try {
+        profile(databaseUrl, username, password, repetitions, validationQuery,
+          driverLoadNanos);
+        System.exit(0);
+      } catch (Exception e) {
+        System.err.printf("Error, exiting! %s%n", e.getMessage());
+        System.exit(1);
+      }
+    }
+
     try {
       try (Connection conn = DriverManager.getConnection(databaseUrl, username, 
              password)) {
@@ -116,6 +373,1106 @@ class JdbcConnectTest {
     }
   }
 
+  /**
+   * Loads and registers the JDBC drivers in the given jars.
+   * 
+   * <p>
+   * The jars, separated by {@link File#pathSeparator} so that a driver can be
+   * given with the jars it needs, get a class loader of their own whose parent
+   * is the platform class loader. Drivers in different jars can't see each
+   * other's classes or any others on the class path, so two versions of a
+   * driver can be used in the same run.
+   * 
+   * <p>
+   * The names of the driver classes are kept in an index in
+   * {@value #INDEX_DIR} under the user's home directory, keyed by the jars'
+   * paths and checked against their sizes and modification times. If the jars
+   * are in the index and haven't changed, the driver classes are loaded by name
+   * without reading the jars. If their sizes or times have changed, the jars
+   * are hashed with SHA-256, and a jar that was only touched or copied again
+   * still uses the driver classes in the index. Otherwise the drivers are found
+   * by reading the jars' {@value #DRIVER_SERVICE} files, the way
+   * {@link java.util.ServiceLoader} would. Either way the index is brought up to
+   * date for the next run; if it can't be, a warning is printed and the drivers
+   * found are used all the same.
+   * 
+   * <p>
+   * {@link DriverManager} only hands out drivers whose classes the caller's
+   * class loader can load, so each driver is registered wrapped in a
+   * {@link DriverShim}.
+   * 
+   * @param jars the jars, separated by {@link File#pathSeparator}.
+   * @throws IOException  if the jars can't be read or have no drivers.
+   * @throws SQLException if a driver can't be registered.
+   */
+  static void loadDrivers(String jars) throws IOException, SQLException {
+    String[] paths = jars.split(File.pathSeparator);
+    URL[] urls = new URL[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = Path.of(paths[i]).toAbsolutePath().normalize().toString();
+      urls[i] = Path.of(paths[i]).toUri().toURL();
+    }
+    URLClassLoader loader = new URLClassLoader(urls,
+      ClassLoader.getPlatformClassLoader());
+
+    String key = String.join(File.pathSeparator, paths);
+    String stamp = stamp(paths);
+    Path indexFile = Path.of(System.getProperty("user.home"), INDEX_DIR, DRIVER_INDEX);
+    Map<String, String[]> index = readIndex(indexFile);
+    String[] indexed = index.get(key);
+    String hash = null;
+    String classNames = null;
+    if (indexed != null) {
+      if (!indexed[0].equals(stamp)) {
+        hash = hash(paths);
+      }
+      if (hash == null || hash.equals(indexed[1])) {
+        classNames = indexed[2];
+      }
+    }
+
+    boolean registered = false;
+    if (classNames != null) {
+      try {
+        registerDrivers(loader, classNames);
+        registered = true;
+      } catch (ReflectiveOperationException | ClassCastException e) {
+        // The index is out of date; look for the drivers again.
+      }
+    }
+    if (registered && hash == null) {
+      return;
+    }
+
+    if (!registered) {
+      classNames = findDrivers(loader);
+      if (classNames.isEmpty()) {
+        throw new IOException(String.format("No %s in %s", DRIVER_SERVICE, jars));
+      }
+      try {
+        registerDrivers(loader, classNames);
+      } catch (ReflectiveOperationException | ClassCastException e) {
+        throw new SQLException(String.format("Can't load driver %s from %s",
+          classNames, jars), e);
+      }
+    }
+    if (hash == null) {
+      hash = hash(paths);
+    }
+    index.put(key, new String[] { stamp, hash, classNames });
+    try {
+      writeIndex(indexFile, index);
+    } catch (IOException e) {
+      System.err.printf("Warning: could not write driver index %s: %s%n",
+        indexFile, e.getMessage());
+    }
+  }
+
+  private static void registerDrivers(ClassLoader loader, String classNames)
+      throws ReflectiveOperationException, SQLException {
+    for (String className : classNames.split(",")) {
+      Driver driver = (Driver) Class.forName(className, true, loader)
+        .getDeclaredConstructor().newInstance();
+      DriverManager.registerDriver(new DriverShim(driver));
+    }
+  }
+
+  /**
+   * Returns the comma separated names of the drivers listed in the loader's
+   * own service files.
+   */
+  private static String findDrivers(URLClassLoader loader) throws IOException {
+    List<String> classNames = new ArrayList<>();
+    for (URL service : Collections.list(loader.findResources(DRIVER_SERVICE))) {
+      try (BufferedReader in = new BufferedReader(new InputStreamReader(
+          service.openStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          int comment = line.indexOf('#');
+          String className = (comment < 0 ? line : line.substring(0, comment)).strip();
+          if (!className.isEmpty() && !classNames.contains(className)) {
+            classNames.add(className);
+          }
+        }
+      }
+    }
+    return String.join(",", classNames);
+  }
+
+  /**
+   * Returns the jars' sizes and modification times, the way they're checked
+   * against the driver index.
+   */
+  private static String stamp(String[] paths) throws IOException {
+    StringBuilder stamp = new StringBuilder();
+    for (String path : paths) {
+      if (stamp.length() > 0) {
+        stamp.append(File.pathSeparator);
+      }
+      Path jar = Path.of(path);
+      stamp.append(Files.size(jar)).append(',')
+        .append(Files.getLastModifiedTime(jar).toMillis());
+    }
+    return stamp.toString();
+  }
+
+  private static String hash(String[] paths) throws IOException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+      for (String path : paths) {
+        try (FileChannel ch = FileChannel.open(Path.of(path))) {
+          while (ch.read(buffer.clear()) != -1) {
+            digest.update(buffer.flip());
+          }
+        }
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Reads the driver index, one line for each set of jars: their paths, their
+   * sizes and modification times, the hash of their contents and the driver
+   * class names, separated by tabs. Lines that don't have all four are left
+   * out, so they're dropped the next time the index is written.
+   */
+  private static Map<String, String[]> readIndex(Path indexFile) throws IOException {
+    Map<String, String[]> index = new LinkedHashMap<>();
+    if (Files.isRegularFile(indexFile)) {
+      for (String line : Files.readAllLines(indexFile)) {
+        String[] fields = line.split("\t", 4);
+        if (fields.length == 4) {
+          index.put(fields[0], Arrays.copyOfRange(fields, 1, 4));
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Writes the driver index. Runs started at the same time may each add their
+   * own jars to it; the index is replaced in one move rather than rewritten in
+   * place, so whichever run is last leaves a complete index behind, and no run
+   * reads one with a line cut short.
+   */
+  private static void writeIndex(Path indexFile, Map<String, String[]> index)
+      throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (Map.Entry<String, String[]> entry : index.entrySet()) {
+      lines.append(entry.getKey()).append('\t')
+        .append(String.join("\t", entry.getValue())).append('\n');
+    }
+    Files.createDirectories(indexFile.getParent());
+    Path tmp = Files.createTempFile(indexFile.getParent(),
+      indexFile.getFileName().toString(), ".tmp");
+    try {
+      Files.writeString(tmp, lines);
+      Files.move(tmp, indexFile, StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * Tests connecting to every target listed in a file, several at a time.
+   * 
+   * <p>
+   * Each line of the file has a database URL, a username and, optionally, where
+   * to get the password from, separated by whitespace. Blank lines and lines
+   * starting with {@code #} are ignored. The password source is one of:
+   * 
+   * <ul>
+   * <li>{@code env:NAME} for the value of the environment variable {@code NAME}.
+   * <li>{@code file:PATH} for the first line of the file {@code PATH}.
+   * <li>{@code pass:PASSWORD} for the password itself.
+   * </ul>
+   * 
+   * <p>
+   * Targets are tested on a pool of {@code concurrency} threads. Java 17 has no
+   * virtual threads, so a fixed pool of platform threads caps how many
+   * connections are attempted at the same time. A target that hasn't connected
+   * {@code timeoutSeconds} after its attempt started is reported as timed out;
+   * the same timeout is passed to drivers with
+   * {@link DriverManager#setLoginTimeout(int)} so that they give up too.
+   * 
+   * <p>
+   * A driver that ignores the login timeout and can't be interrupted keeps its
+   * thread even after its target has been reported, so targets waiting for a
+   * thread can't be waited for forever either. The n-th target queued behind
+   * the first {@code concurrency} ones gets {@code timeoutSeconds} for each
+   * round of {@code concurrency} targets ahead of it, plus its own; if it
+   * hasn't started by then it's reported as timed out without having started,
+   * and never run.
+   * 
+   * <p>
+   * One tab separated line is printed per target, in the order of the file, as
+   * soon as it and the targets before it are done: {@code OK}, {@code FAIL} or
+   * {@code TIMEOUT}, the milliseconds taken, the URL, the username and either
+   * the database product and version or the error. If {@code quiet} is set,
+   * only targets that aren't OK are printed.
+   * 
+   * @param targetsFile    path to the file of targets, or {@code -} for
+   *                       {@link System#in}.
+   * @param concurrency    maximum number of targets tested at the same time.
+   * @param timeoutSeconds seconds to wait for each target.
+   * @param quiet          if {@code true}, print only targets that aren't OK.
+   * @return {@code true} if every target connected.
+   * @throws IOException          if the targets file can't be read.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  static boolean sweep(String targetsFile, int concurrency, int timeoutSeconds,
+      boolean quiet) throws IOException, InterruptedException {
+    List<Target> targets = readTargets(targetsFile);
+    if (targets.isEmpty()) {
+      return true;
+    }
+
+    DriverManager.setLoginTimeout(timeoutSeconds);
+    int threads = Math.min(concurrency, targets.size());
+    ExecutorService pool = newPool(threads);
+    try {
+      long timeoutNanos = TimeUnit.SECONDS.toNanos(timeoutSeconds);
+      long submitted = System.nanoTime();
+      List<Future<String>> results = new ArrayList<>(targets.size());
+      for (Target target : targets) {
+        results.add(pool.submit(target::test));
+      }
+
+      boolean allOk = true;
+      for (int i = 0; i < targets.size(); i++) {
+        Target target = targets.get(i);
+        long startDeadline = submitted + timeoutNanos * (i / threads + 1);
+        String result = target.await(results.get(i), submitted, startDeadline,
+          timeoutNanos);
+        boolean ok = result.startsWith("OK\t");
+        allOk &= ok;
+        if (!ok || !quiet) {
+          System.out.println(result);
+        }
+      }
+      return allOk;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Connects to a database a number of times and prints how long each phase of
+   * connecting took.
+   * 
+   * <p>
+   * Each repetition times these phases, one after the other:
+   * 
+   * <ol>
+   * <li>{@code driver}: finding the driver for the URL. The first repetition
+   * includes loading the driver's classes: {@code driverLoadNanos}, the time
+   * {@link #loadDrivers(String)} took to load them from the {@code -j} jars
+   * before the first repetition, is added to it, and any driver on the class
+   * path is loaded during it. Later repetitions only look the driver up.
+   * <li>{@code connect}: opening the connection, which includes the network
+   * connection, any TLS handshake and authentication.
+   * <li>{@code metadata}: getting the database's metadata, product name and
+   * version.
+   * <li>{@code query}: running {@code validationQuery} and reading all its rows,
+   * or {@link Connection#isValid(int)} if there's no validation query.
+   * </ol>
+   * 
+   * <p>
+   * The time of each phase, and of all of them together, is recorded in a
+   * {@link Histogram} and a table of the first repetition's time followed by the
+   * minimum, 50th, 95th and 99th percentile and maximum times is printed in
+   * milliseconds. A slow first repetition with fast later ones points at the
+   * cost of loading and initializing the driver; a slow {@code connect}
+   * throughout points at the network, TLS or authentication.
+   * 
+   * @param databaseUrl     the database URL.
+   * @param username        the username.
+   * @param password        the password.
+   * @param repetitions     the number of times to connect.
+   * @param validationQuery the query to run on each connection, or
+   *                        {@code null} to check the connection with
+   *                        {@link Connection#isValid(int)}.
+   * @param driverLoadNanos time taken to load the drivers before the first
+   *                        repetition, in nanoseconds.
+   * @throws SQLException if any repetition fails.
+   */
+  static void profile(String databaseUrl, String username, String password,
+      int repetitions, String validationQuery, long driverLoadNanos)
+      throws SQLException {
+    String[] phases = { "driver", "connect", "metadata", "query", "total" };
+    Histogram[] histograms = new Histogram[phases.length];
+    long[] first = new long[phases.length];
+    for (int i = 0; i < phases.length; i++) {
+      histograms[i] = new Histogram();
+    }
+
+    Properties info = new Properties();
+    info.setProperty("user", username);
+    info.setProperty("password", password);
+    String product = null;
+    long[] times = new long[4];
+    for (int repetition = 0; repetition < repetitions; repetition++) {
+      long start = System.nanoTime() - (repetition == 0 ? driverLoadNanos : 0);
+      Driver driver = DriverManager.getDriver(databaseUrl);
+      times[0] = System.nanoTime();
+      try (Connection conn = driver.connect(databaseUrl, info)) {
+        times[1] = System.nanoTime();
+        DatabaseMetaData metadata = conn.getMetaData();
+        product = String.format("%s %s", metadata.getDatabaseProductName(),
+          metadata.getDatabaseProductVersion());
+        times[2] = System.nanoTime();
+        validate(conn, validationQuery);
+        times[3] = System.nanoTime();
+      }
+
+      for (int i = 0; i < phases.length; i++) {
+        long elapsed = i == 4 ? times[3] - start
+          : times[i] - (i == 0 ? start : times[i - 1]);
+        histograms[i].record(elapsed);
+        if (repetition == 0) {
+          first[i] = elapsed;
+        }
+      }
+    }
+
+    System.out.printf("Connected to %s %d times%n", product, repetitions);
+    System.out.println();
+    System.out.printf("%-8s %10s %10s %10s %10s %10s %10s%n", "ms", "first",
+      "min", "p50", "p95", "p99", "max");
+    for (int i = 0; i < phases.length; i++) {
+      Histogram histogram = histograms[i];
+      System.out.printf("%-8s %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+        phases[i], millis(first[i]), millis(histogram.getMin()),
+        millis(histogram.getValueAtPercentile(50)),
+        millis(histogram.getValueAtPercentile(95)),
+        millis(histogram.getValueAtPercentile(99)),
+        millis(histogram.getMax()));
+    }
+  }
+
+  /**
+   * Holds a number of connections open and queries them at a steady rate,
+   * printing what happened every second.
+   * 
+   * <p>
+   * Every connection is opened at the same moment, the way an application's
+   * connection pool reconnects after a failover. Each connection is then
+   * validated as in {@link #profile(String, String, String, int, String,
+   * long)},
+   * {@code rate / connections} times a second, with the connections' queries
+   * spread evenly over the second. A connection whose query fails is closed
+   * and opened again. Every connection gets a thread of its own, so the pool
+   * is as large as {@code connections}.
+   * 
+   * <p>
+   * A query's latency is measured from when it was scheduled to run rather
+   * than when it started, so a query held up behind a slow one or behind a
+   * reconnect counts the time it waited. Measuring from when each query
+   * started would hide exactly the stalls this is meant to show.
+   * 
+   * <p>
+   * Every second, a line is printed with the seconds elapsed, the number of
+   * open connections, the connections opened, queries run and errors in that
+   * second, and the 50th, 95th and 99th percentile and maximum query
+   * latencies in milliseconds. Summaries of the connect and query latencies
+   * for the whole run are printed at the end.
+   * 
+   * @param databaseUrl     the database URL.
+   * @param username        the username.
+   * @param password        the password.
+   * @param connections     the number of connections to hold open.
+   * @param rate            the total number of queries a second.
+   * @param seconds         how long to run for.
+   * @param validationQuery the query to run on each connection, or
+   *                        {@code null} to check the connection with
+   *                        {@link Connection#isValid(int)}.
+   * @return {@code true} if there were no errors.
+   * @throws SQLException         if there's no driver for the URL.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  static boolean stress(String databaseUrl, String username, String password,
+      int connections, int rate, int seconds, String validationQuery)
+      throws SQLException, InterruptedException {
+    Driver driver = DriverManager.getDriver(databaseUrl);
+    Properties info = new Properties();
+    info.setProperty("user", username);
+    info.setProperty("password", password);
+
+    Load load = new Load();
+    AtomicInteger open = new AtomicInteger();
+    CountDownLatch ready = new CountDownLatch(connections);
+    long interval = TimeUnit.SECONDS.toNanos(connections) / rate;
+    long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+    long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+    System.out.printf("Holding %d connections to %s, %d queries/s for %d s%n",
+      connections, databaseUrl, rate, seconds);
+    System.out.println();
+    System.out.printf("%4s %6s %8s %8s %7s %10s %10s %10s %10s%n", "s", "open",
+      "connects", "queries", "errors", "p50", "p95", "p99", "max");
+
+    ExecutorService pool = newPool(connections);
+    for (int i = 0; i < connections; i++) {
+      long first = start + interval * i / connections;
+      pool.execute(() -> {
+        ready.countDown();
+        LockSupport.parkNanos(start - System.nanoTime());
+        Connection conn = null;
+        for (long next = first; next < end && !Thread.currentThread().isInterrupted();
+            next += interval) {
+          if (conn == null) {
+            long connectStart = System.nanoTime();
+            try {
+              conn = driver.connect(databaseUrl, info);
+              load.connected(System.nanoTime() - connectStart);
+              open.incrementAndGet();
+            } catch (SQLException e) {
+              load.failed();
+            }
+          }
+          for (long now = System.nanoTime(); now < next; now = System.nanoTime()) {
+            LockSupport.parkNanos(next - now);
+          }
+          if (conn != null) {
+            try {
+              validate(conn, validationQuery);
+              load.queried(System.nanoTime() - next);
+            } catch (SQLException e) {
+              load.failed();
+              close(conn);
+              conn = null;
+              open.decrementAndGet();
+            }
+          }
+        }
+        if (conn != null) {
+          close(conn);
+          open.decrementAndGet();
+        }
+      });
+    }
+    ready.await();
+
+    Histogram connectTotal = new Histogram();
+    Histogram queryTotal = new Histogram();
+    Histogram second = new Histogram();
+    long errors = 0;
+    for (int elapsed = 1; elapsed <= seconds; elapsed++) {
+      LockSupport.parkNanos(start + TimeUnit.SECONDS.toNanos(elapsed)
+        - System.nanoTime());
+      long connects;
+      long failures;
+      synchronized (load) {
+        connects = load.connects.getTotalCount();
+        failures = load.errors;
+        connectTotal.add(load.connects);
+        second.add(load.queries);
+        load.reset();
+      }
+      errors += failures;
+      queryTotal.add(second);
+      System.out.printf("%4d %6d %8d %8d %7d %10.3f %10.3f %10.3f %10.3f%n",
+        elapsed, open.get(), connects, second.getTotalCount(), failures,
+        millis(second.getValueAtPercentile(50)),
+        millis(second.getValueAtPercentile(95)),
+        millis(second.getValueAtPercentile(99)), millis(second.getMax()));
+      second.reset();
+    }
+    pool.shutdown();
+    if (!pool.awaitTermination(DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      pool.shutdownNow();
+    }
+
+    System.out.println();
+    System.out.printf("%-8s %8s %10s %10s %10s %10s %10s %10s%n", "ms", "count",
+      "min", "p50", "p95", "p99", "max", "per s");
+    for (String phase : List.of("connect", "query")) {
+      Histogram histogram = phase.equals("connect") ? connectTotal : queryTotal;
+      System.out.printf("%-8s %8d %10.3f %10.3f %10.3f %10.3f %10.3f %10.1f%n",
+        phase, histogram.getTotalCount(), millis(histogram.getMin()),
+        millis(histogram.getValueAtPercentile(50)),
+        millis(histogram.getValueAtPercentile(95)),
+        millis(histogram.getValueAtPercentile(99)), millis(histogram.getMax()),
+        (double) histogram.getTotalCount() / seconds);
+    }
+    System.out.printf("errors   %8d%n", errors);
+    return errors == 0;
+  }
+
+  /**
+   * Measures how fast a query's rows can be read with different fetch sizes
+   * and how fast rows can be inserted with different batch sizes.
+   * 
+   * <p>
+   * The query is run with {@link Statement#setFetchSize(int)} set to each fetch
+   * size in turn on a forward only, read only statement, and every column of
+   * every row is read. A fetch size of 0 leaves it to the driver.
+   * 
+   * <p>
+   * The insert is a statement with {@code ?} parameters, run {@code rows}
+   * times for each batch size in turn with {@link Statement#addBatch()} and
+   * {@link Statement#executeBatch()}, with auto-commit off and a commit at the
+   * end of each batch size. Parameters are filled in according to their type
+   * from the statement's {@link ParameterMetaData}: numbers with the row
+   * number, dates and times with a timestamp and anything else with text such
+   * as {@code row-42}. If the driver can't say what the types are, every
+   * parameter is text. The table grows by {@code rows} rows for each batch
+   * size.
+   * 
+   * <p>
+   * Each is run once with the first size before measuring, so that the
+   * driver's classes are loaded and the database has the query planned; the
+   * rows inserted then are rolled back. For each size, the rows, bytes, time
+   * in milliseconds, rows a second and bytes a second are printed. Bytes are
+   * the UTF-8 length of character values and the length of binary values; any
+   * other value that isn't null counts as 8 bytes.
+   * 
+   * @param conn       the connection.
+   * @param selectSql  the query, or {@code null} to skip it.
+   * @param fetchSizes the fetch sizes to run the query with.
+   * @param insertSql  the insert, or {@code null} to skip it.
+   * @param batchSizes the batch sizes to run the insert with.
+   * @param rows       the number of rows to insert with each batch size.
+   * @throws SQLException if a statement fails.
+   */
+  static void benchmark(Connection conn, String selectSql, int[] fetchSizes,
+      String insertSql, int[] batchSizes, int rows) throws SQLException {
+    DatabaseMetaData metadata = conn.getMetaData();
+    System.out.printf("Benchmarking %s %s with %s %s%n",
+      metadata.getDatabaseProductName(), metadata.getDatabaseProductVersion(),
+      metadata.getDriverName(), metadata.getDriverVersion());
+
+    if (!isNullOrEmpty(selectSql)) {
+      System.out.println();
+      System.out.printf("%-8s %10s %14s %10s %12s %14s%n", "fetch", "rows",
+        "bytes", "ms", "rows/s", "bytes/s");
+      select(conn, selectSql, fetchSizes[0]);
+      for (int fetchSize : fetchSizes) {
+        long start = System.nanoTime();
+        long[] counts = select(conn, selectSql, fetchSize);
+        printThroughput(fetchSize, counts, System.nanoTime() - start);
+      }
+    }
+
+    if (!isNullOrEmpty(insertSql)) {
+      boolean autoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+      try {
+        System.out.println();
+        System.out.printf("%-8s %10s %14s %10s %12s %14s%n", "batch", "rows",
+          "bytes", "ms", "rows/s", "bytes/s");
+        insert(conn, insertSql, batchSizes[0], Math.min(rows, batchSizes[0]));
+        conn.rollback();
+        for (int batchSize : batchSizes) {
+          long start = System.nanoTime();
+          long[] counts = insert(conn, insertSql, batchSize, rows);
+          conn.commit();
+          printThroughput(batchSize, counts, System.nanoTime() - start);
+        }
+      } finally {
+        conn.setAutoCommit(autoCommit);
+      }
+    }
+  }
+
+  /**
+   * Writes a query's rows to a channel as CSV or JSON Lines.
+   * 
+   * <p>
+   * Rows are read one at a time from a forward only, read only statement with
+   * the given fetch size and written straight out, so a query of any number of
+   * rows is exported in as much memory as {@code fetchSize} rows take. The
+   * connection's auto-commit is turned off while exporting because some
+   * drivers, PostgreSQL's among them, only fetch rows a batch at a time inside
+   * a transaction and otherwise read the whole result into memory.
+   * 
+   * <p>
+   * CSV has a header line of the column labels and quotes fields with commas,
+   * quotes or line breaks in them as described in RFC 4180; {@code NULL} is
+   * an empty field. JSON Lines has one object per row keyed by the column
+   * labels, with numbers, booleans and {@code null} as themselves and
+   * everything else as strings. Binary values are Base64 and booleans are
+   * {@code true} or {@code false} in both.
+   * 
+   * <p>
+   * Unless {@code quiet} is set, the number of rows written and the rate is
+   * printed to {@link System#err} every second, then once more at the end.
+   * 
+   * @param conn      the connection.
+   * @param sql       the query.
+   * @param fetchSize the fetch size, or 0 to leave it to the driver.
+   * @param format    {@code csv} or {@code jsonl}.
+   * @param channel   where to write the rows.
+   * @param quiet     if {@code true}, don't print progress.
+   * @return the number of rows written.
+   * @throws IOException  if the rows can't be written.
+   * @throws SQLException if the query fails.
+   */
+  static long export(Connection conn, String sql, int fetchSize, String format,
+      WritableByteChannel channel, boolean quiet) throws IOException, SQLException {
+    boolean json = format.equals("jsonl");
+    boolean autoCommit = conn.getAutoCommit();
+    conn.setAutoCommit(false);
+    long rows = 0;
+    long start = System.nanoTime();
+    try (Statement statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+           ResultSet.CONCUR_READ_ONLY)) {
+      statement.setFetchSize(fetchSize);
+      try (ResultSet rs = statement.executeQuery(sql)) {
+        Writer out = new BufferedWriter(Channels.newWriter(channel,
+          StandardCharsets.UTF_8), EXPORT_BUFFER_SIZE);
+        ResultSetMetaData md = rs.getMetaData();
+        int[] types = new int[md.getColumnCount() + 1];
+        String[] keys = new String[types.length];
+        for (int i = 1; i < types.length; i++) {
+          types[i] = md.getColumnType(i);
+          if (json) {
+            StringBuilder key = new StringBuilder(i == 1 ? "{" : ",");
+            writeJsonString(key, md.getColumnLabel(i));
+            keys[i] = key.append(':').toString();
+          } else {
+            if (i > 1) {
+              out.write(',');
+            }
+            writeCsvField(out, md.getColumnLabel(i));
+          }
+        }
+        if (!json) {
+          out.write('\n');
+        }
+
+        long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+        while (rs.next()) {
+          for (int i = 1; i < types.length; i++) {
+            String value = exportValue(rs, i, types[i]);
+            if (json) {
+              out.write(keys[i]);
+              writeJsonValue(out, types[i], value);
+            } else {
+              if (i > 1) {
+                out.write(',');
+              }
+              if (value != null) {
+                writeCsvField(out, value);
+              }
+            }
+          }
+          out.write(json ? (types.length == 1 ? "{}\n" : "}\n") : "\n");
+          rows++;
+          if (!quiet && (rows & 1023) == 0 && System.nanoTime() >= nextReport) {
+            printProgress(rows, start, "\r");
+            nextReport += TimeUnit.SECONDS.toNanos(1);
+          }
+        }
+        out.flush();
+      }
+    } finally {
+      conn.setAutoCommit(autoCommit);
+    }
+    if (!quiet) {
+      printProgress(rows, start, "%n");
+    }
+    return rows;
+  }
+
+  private static void printProgress(long rows, long start, String end) {
+    double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+    System.err.printf("%d rows in %.1f s (%.0f rows/s)" + end, rows, seconds,
+      rows / seconds);
+  }
+
+  /**
+   * Returns a column's value as text to export: Base64 for binary columns,
+   * {@code true} or {@code false} for boolean columns (read with
+   * {@link ResultSet#getBoolean(int)}, since drivers' text for them varies, from
+   * {@code TRUE} to {@code t}) and the driver's text for anything else, or
+   * {@code null} if the value is {@code NULL}.
+   */
+  private static String exportValue(ResultSet rs, int column, int type)
+      throws SQLException {
+    if (isBinary(type)) {
+      return base64(rs.getBytes(column));
+    } else if (type == Types.BIT || type == Types.BOOLEAN) {
+      boolean value = rs.getBoolean(column);
+      return rs.wasNull() ? null : String.valueOf(value);
+    }
+    return rs.getString(column);
+  }
+
+  private static String base64(byte[] value) {
+    return value == null ? null : Base64.getEncoder().encodeToString(value);
+  }
+
+  private static void writeCsvField(Writer out, String value) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      out.write(value);
+      return;
+    }
+    out.write('"');
+    int from = 0;
+    for (int i = value.indexOf('"'); i >= 0; i = value.indexOf('"', i + 1)) {
+      out.write(value, from, i + 1 - from);
+      out.write('"');
+      from = i + 1;
+    }
+    out.write(value, from, value.length() - from);
+    out.write('"');
+  }
+
+  private static void writeJsonValue(Writer out, int type, String value)
+      throws IOException {
+    if (value == null) {
+      out.write("null");
+      return;
+    }
+    switch (type) {
+      case Types.BIT:
+      case Types.BOOLEAN:
+        out.write(value);
+        return;
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        if (isJsonNumber(value)) {
+          out.write(value);
+          return;
+        }
+        break;
+      default:
+        break;
+    }
+    writeJsonString(out, value);
+  }
+
+  /**
+   * Returns {@code true} if the value is made of the characters of a JSON number
+   * and starts and ends as one does, which tells the numbers drivers print
+   * apart from {@code NaN} and {@code Infinity}.
+   */
+  private static boolean isJsonNumber(String value) {
+    if (value.isEmpty() || !Character.isDigit(value.charAt(value.length() - 1))
+        || !(value.charAt(0) == '-' || Character.isDigit(value.charAt(0)))) {
+      return false;
+    }
+    for (int i = 1; i < value.length(); i++) {
+      if ("0123456789.eE+-".indexOf(value.charAt(i)) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void writeJsonString(Appendable out, String value)
+      throws IOException {
+    out.append('"');
+    int from = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= 0x20 && c != '"' && c != '\\') {
+        continue;
+      }
+      out.append(value, from, i);
+      switch (c) {
+        case '"':
+          out.append("\\\"");
+          break;
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        default:
+          out.append(String.format("\\u%04x", (int) c));
+          break;
+      }
+      from = i + 1;
+    }
+    out.append(value, from, value.length());
+    out.append('"');
+  }
+
+  private static long[] select(Connection conn, String sql, int fetchSize)
+      throws SQLException {
+    long rows = 0;
+    long bytes = 0;
+    try (Statement statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+           ResultSet.CONCUR_READ_ONLY)) {
+      statement.setFetchSize(fetchSize);
+      try (ResultSet rs = statement.executeQuery(sql)) {
+        ResultSetMetaData md = rs.getMetaData();
+        int[] types = new int[md.getColumnCount() + 1];
+        for (int i = 1; i < types.length; i++) {
+          types[i] = md.getColumnType(i);
+        }
+        while (rs.next()) {
+          rows++;
+          for (int i = 1; i < types.length; i++) {
+            bytes += readColumn(rs, i, types[i]);
+          }
+        }
+      }
+    }
+    return new long[] { rows, bytes };
+  }
+
+  private static long[] insert(Connection conn, String sql, int batchSize, int rows)
+      throws SQLException {
+    long bytes = 0;
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      int[] types = parameterTypes(statement, sql);
+      for (int row = 1; row <= rows; row++) {
+        for (int i = 1; i < types.length; i++) {
+          bytes += setParameter(statement, i, types[i], row);
+        }
+        statement.addBatch();
+        if (row % batchSize == 0 || row == rows) {
+          statement.executeBatch();
+        }
+      }
+    }
+    return new long[] { rows, bytes };
+  }
+
+  private static int[] parameterTypes(PreparedStatement statement, String sql) {
+    ParameterMetaData md = null;
+    int count = -1;
+    try {
+      md = statement.getParameterMetaData();
+      if (md != null) {
+        count = md.getParameterCount();
+      }
+    } catch (SQLException e) {
+      // Not every driver can describe parameters; they'll all be text.
+    }
+    if (count < 0) {
+      md = null;
+      count = (int) sql.chars().filter(c -> c == '?').count();
+    }
+    int[] types = new int[count + 1];
+    for (int i = 1; i < types.length; i++) {
+      try {
+        types[i] = md == null ? Types.VARCHAR : md.getParameterType(i);
+      } catch (SQLException e) {
+        types[i] = Types.VARCHAR;
+      }
+    }
+    return types;
+  }
+
+  private static long readColumn(ResultSet rs, int column, int type)
+      throws SQLException {
+    if (isCharacter(type)) {
+      String value = rs.getString(column);
+      return value == null ? 0 : utf8Length(value);
+    } else if (isBinary(type)) {
+      byte[] value = rs.getBytes(column);
+      return value == null ? 0 : value.length;
+    }
+    return rs.getObject(column) == null ? 0 : 8;
+  }
+
+  private static long setParameter(PreparedStatement statement, int index,
+      int type, int row) throws SQLException {
+    switch (type) {
+      case Types.BIT:
+      case Types.BOOLEAN:
+        statement.setBoolean(index, row % 2 == 0);
+        return 8;
+      case Types.TINYINT:
+        statement.setByte(index, (byte) row);
+        return 8;
+      case Types.SMALLINT:
+        statement.setShort(index, (short) row);
+        return 8;
+      case Types.INTEGER:
+      case Types.BIGINT:
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        statement.setLong(index, row);
+        return 8;
+      case Types.DATE:
+      case Types.TIME:
+      case Types.TIMESTAMP:
+      case Types.TIMESTAMP_WITH_TIMEZONE:
+        statement.setTimestamp(index, new Timestamp(System.currentTimeMillis()));
+        return 8;
+      default:
+        String value = "row-" + row;
+        if (isBinary(type)) {
+          statement.setBytes(index, value.getBytes(StandardCharsets.UTF_8));
+        } else {
+          statement.setString(index, value);
+        }
+        return value.length();
+    }
+  }
+
+  private static boolean isCharacter(int type) {
+    switch (type) {
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+      case Types.CLOB:
+      case Types.NCLOB:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isBinary(int type) {
+    switch (type) {
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+      case Types.BLOB:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static long utf8Length(String value) {
+    long length = value.length();
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= 0x800 && !Character.isSurrogate(c)) {
+        length += 2;
+      } else if (c >= 0x80) {
+        length++;
+      }
+    }
+    return length;
+  }
+
+  private static void printThroughput(int size, long[] counts, long nanos) {
+    double seconds = nanos / 1_000_000_000.0;
+    System.out.printf("%-8d %10d %14d %10.1f %12.0f %14.0f%n", size, counts[0],
+      counts[1], millis(nanos), counts[0] / seconds, counts[1] / seconds);
+  }
+
+  private static void validate(Connection conn, String validationQuery)
+      throws SQLException {
+    if (isNullOrEmpty(validationQuery)) {
+      if (!conn.isValid(DEFAULT_TIMEOUT_SECONDS)) {
+        throw new SQLException("Connection is not valid");
+      }
+    } else {
+      try (Statement statement = conn.createStatement();
+          ResultSet rs = statement.executeQuery(validationQuery)) {
+        while (rs.next()) {
+          // Read every row so that the whole result is timed.
+        }
+      }
+    }
+  }
+
+  private static void close(Connection conn) {
+    try {
+      conn.close();
+    } catch (SQLException e) {
+      // The connection is being thrown away; nothing more to do with it.
+    }
+  }
+
+  private static ExecutorService newPool(int threads) {
+    return Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, JdbcConnectTest.class.getSimpleName());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+
+  private static List<Target> readTargets(String targetsFile) throws IOException {
+    List<Target> targets = new ArrayList<>();
+    try (BufferedReader in = targetsFile.equals("-")
+        ? new BufferedReader(new InputStreamReader(System.in))
+        : Files.newBufferedReader(Path.of(targetsFile))) {
+      int lineNumber = 0;
+      String line;
+      while ((line = in.readLine()) != null) {
+        lineNumber++;
+        line = line.strip();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\\s+", 3);
+        if (fields.length < 2) {
+          throw new IOException(String.format(
+            "%s:%d: expected <database-url> <username> [<password-source>]",
+            targetsFile, lineNumber));
+        }
+        targets.add(new Target(fields[0], fields[1],
+          fields.length > 2 ? fields[2] : null));
+      }
+    }
+    return targets;
+  }
+
+  private static int[] parseSizes(String option, String value, int min) {
+    String[] fields = value.split(",");
+    int[] sizes = new int[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      try {
+        sizes[i] = Integer.parseInt(fields[i].strip());
+      } catch (NumberFormatException e) {
+        sizes[i] = min - 1;
+      }
+      if (sizes[i] < min) {
+        System.err.printf("Option %s needs a comma separated list of numbers of at least %d, got %s%n",
+          option, min, value);
+        showUsageAndExit(1);
+      }
+    }
+    return sizes;
+  }
+
+  private static int parsePositive(String option, String value) {
+    try {
+      int number = Integer.parseInt(value);
+      if (number > 0) {
+        return number;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through to the usage message.
+    }
+    System.err.printf("Option %s needs a positive number, got %s%n", option, value);
+    showUsageAndExit(1);
+    return 0;
+  }
+
   private static void showUsageAndExit(int status) {
     showUsage();
     System.exit(status);
@@ -128,8 +1485,36 @@ class JdbcConnectTest {
     System.err.println();
     System.err.println("Options:");
     System.err.println();
+    System.err.println(" -B <sizes>        Comma separated batch sizes to run -I with (default "
+      + DEFAULT_BATCH_SIZES + ")");
+    System.err.println(" -c <n>            Test up to n targets at the same time with -f (default "
+      + DEFAULT_CONCURRENCY + ")");
+    System.err.println(" -d <seconds>      How long to run -k for (default "
+      + DEFAULT_DURATION_SECONDS + ")");
+    System.err.println(" -E <sql>          Export the query's rows to -o");
+    System.err.println(" -e <format>       Format to export to with -E, csv or jsonl (default csv)");
+    System.err.println(" -F <sizes>        Comma separated fetch sizes to run -S with (default "
+      + DEFAULT_FETCH_SIZES + ")");
+    System.err.println("                   or a single fetch size to export with (default "
+      + DEFAULT_EXPORT_FETCH_SIZE + ")");
+    System.err.println(" -f <file>         Test every target listed in file (- for stdin)");
     System.err.println(" -h                Show this help and exit");
+    System.err.println(" -I <sql>          Measure the throughput of an insert with ? parameters");
+    System.err.println(" -j <jars>         Load JDBC drivers from jars (" + File.pathSeparator
+      + " separated), each -j on its own");
+    System.err.println(" -k <n>            Hold n connections open and query them at a steady rate");
+    System.err.println(" -n <rows>         Rows to insert with each -B batch size (default "
+      + DEFAULT_INSERT_ROWS + ")");
+    System.err.println(" -o <file>         File to export to with -E (default - for stdout)");
+    System.err.println(" -Q <sql>          Validation query to time with -t or -k (default: isValid)");
     System.err.println(" -q                Prints OK if set, otherwise print database info");
+    System.err.println("                   (with -f, print only targets that failed;");
+    System.err.println("                   with -E, don't print progress)");
+    System.err.println(" -r <n>            Total queries a second with -k (default: one a connection)");
+    System.err.println(" -S <sql>          Measure the throughput of reading a query's rows");
+    System.err.println(" -t <n>            Connect n times and print how long each phase took");
+    System.err.println(" -T <seconds>      Give up connecting after seconds with -f or -k (default "
+      + DEFAULT_TIMEOUT_SECONDS + ")");
     System.err.println(" -U <database-url> Database Url");
     System.err.println(" -u <username>     Username for database");
     System.err.println(" -w <password>     Password for database (prompted if not set)");
@@ -150,4 +1535,296 @@ class JdbcConnectTest {
   private static boolean isNullOrEmpty(String value) {
     return (value == null || (value != null && value.isEmpty()));
   }
+
+  /**
+   * Counts of recorded times in buckets whose width grows with the times they
+   * hold, like HdrHistogram.
+   * 
+   * <p>
+   * Times are in nanoseconds. Every power of 2 range is split into
+   * {@value #SUB_BUCKETS} equal buckets, so any time is counted in a bucket no
+   * wider than about 0.1% of it and percentiles are that precise whatever the
+   * spread of the times, while recording is a few shifts and an increment.
+   * Times over an hour are counted as an hour. The minimum and maximum are kept
+   * exactly.
+   */
+  static class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 11;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final long HIGHEST_TRACKABLE = TimeUnit.HOURS.toNanos(1);
+
+    private final long[] counts = new long[indexOf(HIGHEST_TRACKABLE) + 1];
+
+    private long totalCount;
+
+    private long min = Long.MAX_VALUE;
+
+    private long max;
+
+    /**
+     * Records a time.
+     * 
+     * @param nanos the time in nanoseconds.
+     */
+    void record(long nanos) {
+      long value = Math.max(0, Math.min(nanos, HIGHEST_TRACKABLE));
+      counts[indexOf(value)]++;
+      totalCount++;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     * 
+     * @param other the histogram to add.
+     */
+    void add(Histogram other) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += other.counts[i];
+      }
+      totalCount += other.totalCount;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+
+    /**
+     * Forgets every recorded time.
+     */
+    void reset() {
+      Arrays.fill(counts, 0);
+      totalCount = 0;
+      min = Long.MAX_VALUE;
+      max = 0;
+    }
+
+    long getTotalCount() {
+      return totalCount;
+    }
+
+    long getMin() {
+      return totalCount == 0 ? 0 : min;
+    }
+
+    long getMax() {
+      return max;
+    }
+
+    /**
+     * Returns the highest time in the bucket holding the given percentile of the
+     * recorded times, limited to the recorded minimum and maximum.
+     * 
+     * @param percentile the percentile, from 0 to 100.
+     * @return the time in nanoseconds, or 0 if nothing has been recorded.
+     */
+    long getValueAtPercentile(double percentile) {
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.max(getMin(), Math.min(highestValueAt(i), max));
+        }
+      }
+      return max;
+    }
+
+    private static int indexOf(long value) {
+      int bucket = 64 - Long.numberOfLeadingZeros(value | (SUB_BUCKETS - 1))
+        - SUB_BUCKET_BITS;
+      int subBucket = (int) (value >>> bucket);
+      return (bucket << (SUB_BUCKET_BITS - 1)) + subBucket;
+    }
+
+    private static long highestValueAt(int index) {
+      int bucket = Math.max(0, (index >> (SUB_BUCKET_BITS - 1)) - 1);
+      long subBucket = index - ((long) bucket << (SUB_BUCKET_BITS - 1));
+      return ((subBucket + 1) << bucket) - 1;
+    }
+  }
+
+  /**
+   * A driver loaded by another class loader, registered with
+   * {@link DriverManager} in its place.
+   */
+  private static class DriverShim implements Driver {
+
+    private final Driver driver;
+
+    DriverShim(Driver driver) {
+      this.driver = driver;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+      return driver.connect(url, info);
+    }
+
+    @Override
+    public boolean acceptsURL(String url) throws SQLException {
+      return driver.acceptsURL(url);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+        throws SQLException {
+      return driver.getPropertyInfo(url, info);
+    }
+
+    @Override
+    public int getMajorVersion() {
+      return driver.getMajorVersion();
+    }
+
+    @Override
+    public int getMinorVersion() {
+      return driver.getMinorVersion();
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+      return driver.jdbcCompliant();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      return driver.getParentLogger();
+    }
+  }
+
+  /**
+   * What happened under load since the last report, guarded by its own lock.
+   */
+  private static class Load {
+
+    private final Histogram connects = new Histogram();
+
+    private final Histogram queries = new Histogram();
+
+    private long errors;
+
+    synchronized void connected(long nanos) {
+      connects.record(nanos);
+    }
+
+    synchronized void queried(long nanos) {
+      queries.record(nanos);
+    }
+
+    synchronized void failed() {
+      errors++;
+    }
+
+    synchronized void reset() {
+      connects.reset();
+      queries.reset();
+      errors = 0;
+    }
+  }
+
+  /**
+   * A database to test connecting to.
+   */
+  private static class Target {
+
+    private final String databaseUrl;
+
+    private final String username;
+
+    private final String passwordSource;
+
+    private volatile long started;
+
+    private long submitted;
+
+    Target(String databaseUrl, String username, String passwordSource) {
+      this.databaseUrl = databaseUrl;
+      this.username = username;
+      this.passwordSource = passwordSource;
+    }
+
+    /**
+     * Connects to the database and returns the result line.
+     */
+    String test() {
+      started = System.nanoTime();
+      try (Connection conn = DriverManager.getConnection(databaseUrl, username,
+             password())) {
+        DatabaseMetaData metadata = conn.getMetaData();
+        return result("OK", String.format("%s %s", metadata.getDatabaseProductName(),
+          metadata.getDatabaseProductVersion()));
+      } catch (Exception e) {
+        return result("FAIL", String.valueOf(e.getMessage()).replaceAll("\\s+", " "));
+      }
+    }
+
+    /**
+     * Waits for the test to finish, at most timeoutNanos after it started, and
+     * returns its result line. If the test hasn't started by startDeadline, it's
+     * cancelled and reported as not started.
+     */
+    String await(Future<String> result, long submitted, long startDeadline,
+        long timeoutNanos) throws InterruptedException {
+      this.submitted = submitted;
+      try {
+        while (started == 0) {
+          long remaining = startDeadline - System.nanoTime();
+          if (remaining <= 0) {
+            // A queued task that's cancelled never runs; one that has just
+            // started is interrupted like any other that timed out.
+            result.cancel(true);
+            return result("TIMEOUT", started == 0
+              ? String.format("not started after %d ms waiting for a thread",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted))
+              : "started too late to finish");
+          }
+          try {
+            return result.get(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)),
+              TimeUnit.NANOSECONDS);
+          } catch (TimeoutException e) {
+            // Not started yet; keep waiting for a thread to pick it up.
+          }
+        }
+        return result.get(started + timeoutNanos - System.nanoTime(),
+          TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        result.cancel(true);
+        return result("TIMEOUT", String.format("no connection after %d ms",
+          TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+      } catch (ExecutionException e) {
+        return result("FAIL", String.valueOf(e.getCause()));
+      }
+    }
+
+    private String result(String status, String detail) {
+      return String.format("%s\t%d\t%s\t%s\t%s", status,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+          - (started == 0 ? submitted : started)), databaseUrl,
+        username, detail);
+    }
+
+    private String password() throws IOException {
+      if (passwordSource == null) {
+        return null;
+      } else if (passwordSource.startsWith("env:")) {
+        String password = System.getenv(passwordSource.substring(4));
+        if (password == null) {
+          throw new IOException("No environment variable " + passwordSource.substring(4));
+        }
+        return password;
+      } else if (passwordSource.startsWith("file:")) {
+        try (BufferedReader in = Files.newBufferedReader(
+            Path.of(passwordSource.substring(5)))) {
+          String password = in.readLine();
+          return password == null ? "" : password;
+        }
+      } else if (passwordSource.startsWith("pass:")) {
+        return passwordSource.substring(5);
+      }
+      throw new IOException("Password source needs to start with env:, file: or pass:");
+    }
+  }
 }
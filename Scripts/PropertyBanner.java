@@ -1,23 +1,61 @@
+import java.io.BufferedReader;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Prints a banner to be put into properties files.
+ * 
+ * <P>
+ * Other programs can use it as a library too. Construct a PropertyBanner with
+ * an {@link Appendable} to write to and call {@link #write()}, use a
+ * {@link Renderer} directly to render many banners, or call
+ * {@link #stamp(Path, String, Renderer)} to stamp a file. None of these exit
+ * the JVM; bad arguments throw {@link IllegalArgumentException} and I/O errors
+ * throw {@link IOException}.
  */
 public class PropertyBanner implements Runnable {
 
-    private static final Character DASH = '-';
+    private static final char DASH = '-';
 
-    private static final Character LINE_COMMENT = '#';
+    private static final char LINE_COMMENT = '#';
 
-    private static final Character SPACE = ' ';
+    private static final char SPACE = ' ';
 
-    private static final Integer DEFAULT_WIDTH = 80;
+    private static final int DEFAULT_WIDTH = 80;
 
     private static final PrintWriter DEFAULT_PRINTWRITER = new PrintWriter(System.out);
 
-    private final int width;
+    private static final String STDIN_STDOUT = "-";
+
+    private static final char SPEC_SEPARATOR = '\t';
+
+    private static final List<String> COMMENT_STYLES = List.of("#", "//", "--", ";");
 
-    private final PrintWriter pw;
+    private final Appendable out;
+
+    private final Renderer renderer;
 
     private final String text;
 
@@ -47,21 +85,123 @@ public class PropertyBanner implements Runnable {
      * The actual text will be 80 characters wide. The above is displayed for
      * formatting purposes only.
      * 
+     * <P>
+     * The {@code -w width} option sets the width of the banner, and the
+     * {@code -c comment} option comments it with {@code //}, {@code --} or
+     * {@code ;} instead of {@code #}, for Java, SQL or ini files. Text too long
+     * to fit is wrapped at spaces onto as many lines as needed, each centered,
+     * and a newline in the text starts a new line.
+     * 
+     * <P>
+     * To print many banners in one run, give the {@code -f} option and a spec
+     * file (or {@code -} to read the spec from {@link System#in}):
+     * 
+     * <PRE>{@code 
+     * java PropertyBanner.java -f banners.txt
+     * }</PRE>
+     * 
+     * <P>
+     * See {@link #batch(String, int, String, boolean)} for the format of the
+     * spec.
+     * 
+     * <P>
+     * To put a banner at the top of an existing file instead, give the
+     * {@code -i} option, the file and the text. A banner already at the top of
+     * the file is replaced, and every other banner in the file is refreshed to
+     * the current width and comment style. Leave out the text to only refresh
+     * the banners. See {@link #stamp(Path, String, Renderer)}.
+     * 
+     * <PRE>{@code 
+     * java PropertyBanner.java -i app.properties "Application Settings"
+     * }</PRE>
+     * 
      * @param args command line arguments.
      */
     public static void main(String... args) {
-        if (args.length < 1) {
-            showUsageAndExit("No text set!", 2);
+        var argIdx = 0;
+        var width = DEFAULT_WIDTH;
+        var comment = String.valueOf(LINE_COMMENT);
+        String spec = null;
+        var inPlace = false;
+        options: while (argIdx < args.length) {
+            switch (args[argIdx]) {
+                case "-c":
+                    comment = optionArgument(args, ++argIdx);
+                    break;
+                case "-f":
+                    spec = optionArgument(args, ++argIdx);
+                    break;
+                case "-i":
+                    inPlace = true;
+                    break;
+                case "-w":
+                    try {
+                        width = Integer.parseInt(optionArgument(args, ++argIdx));
+                    } catch (NumberFormatException e) {
+                        showUsageAndExit("Width needs to be a number!", 1);
+                    }
+                    break;
+                default:
+                    break options;
+            }
+            argIdx++;
         }
 
-        if (args[0].length() > DEFAULT_WIDTH) {
-            showUsageAndExit("Text needs to be < " + DEFAULT_WIDTH + " characters!", 1);
+        if (!COMMENT_STYLES.contains(comment)) {
+            showUsageAndExit("Comment needs to be one of " + COMMENT_STYLES + "!", 1);
+        }
+        if (width < Renderer.minWidth(comment)) {
+            showUsageAndExit("Width needs to be at least " + Renderer.minWidth(comment) + "!", 1);
         }
 
-        var app = new PropertyBanner(args[0]);
+        if (spec != null) {
+            try {
+                batch(spec, width, comment, inPlace);
+            } catch (IllegalArgumentException e) {
+                showUsageAndExit(e.getMessage(), 1);
+            } catch (IOException e) {
+                System.err.println(e);
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (inPlace) {
+            if (argIdx == args.length) {
+                showUsageAndExit("No file set!", 2);
+            }
+            try {
+                stamp(Path.of(args[argIdx]), argIdx + 1 < args.length ? args[argIdx + 1] : null,
+                        new Renderer(width, comment));
+            } catch (IOException e) {
+                System.err.println(e);
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (argIdx == args.length) {
+            showUsageAndExit("No text set!", 2);
+        }
+
+        var app = new PropertyBanner(args[argIdx], width, comment);
         app.run();
     }
 
+    /**
+     * Returns the argument of an option, exiting if it's missing.
+     * 
+     * @param args   command line arguments.
+     * @param argIdx index of the option's argument.
+     * @return the option's argument.
+     */
+    private static String optionArgument(String[] args, int argIdx) {
+        if (argIdx == args.length) {
+            showUsageAndExit("Option " + args[argIdx - 1] + " needs an argument!", 2);
+        }
+        return args[argIdx];
+    }
+
     /**
      * Show a error message, followed by a short usage message, and then exits with
      * the given code.
@@ -70,62 +210,678 @@ public class PropertyBanner implements Runnable {
      * @param code exit code.
      */
     private static void showUsageAndExit(String message, int code) {
-        var usage = String.format("java %s \"text\"", PropertyBanner.class.getName());
+        var usage = String.format("java %1$s [-w <width>] [-c <#|//|--|;>] \"text\"%n"
+                + "java %1$s [-w <width>] [-c <#|//|--|;>] -i <file> [\"text\"]%n"
+                + "java %1$s [-w <width>] [-c <#|//|--|;>] [-i] -f <spec file|->", PropertyBanner.class.getName());
         System.err.println(message);
         System.err.println(usage);
         System.exit(code);
     }
 
+    /**
+     * Prints every banner in a spec in one run.
+     * 
+     * <P>
+     * Each line of the spec names a target file and the text of a banner,
+     * separated by a tab. Banners are appended to their target file, which is
+     * created if it doesn't exist. A line without a tab, or with {@code -} as
+     * its target, prints its banner to {@link System#out}. Blank lines and lines
+     * starting with {@code #} are ignored.
+     * 
+     * <PRE>
+     * # target&lt;TAB&gt;text
+     * build/db.properties	Database Connection
+     * build/db.properties	Connection Pool
+     * build/log.properties	Logging
+     * </PRE>
+     * 
+     * <P>
+     * The whole spec is read and checked before anything is written, so a bad
+     * line doesn't leave some files with banners and others without. Each target
+     * is then opened once for each run of consecutive lines naming it, and its
+     * banners are written through a single buffered writer. One
+     * {@link Renderer} renders every banner.
+     * 
+     * <P>
+     * If {@code inPlace} is {@code true}, each target is stamped with
+     * {@link #stamp(Path, String, Renderer)} instead: its banner text becomes
+     * the banner at the top of the file, and a line without a tab names a file
+     * whose banners are only refreshed. Each target can then be named once.
+     * 
+     * @param spec    path to the spec file, or {@code -} for {@link System#in}.
+     * @param width   width of the banners.
+     * @param comment comment prefix of the banners.
+     * @param inPlace if {@code true}, stamp the targets in place instead of
+     *                appending to them.
+     * @throws IllegalArgumentException if a line of the spec isn't valid.
+     * @throws IOException              if an I/O error occurs.
+     */
+    static void batch(String spec, int width, String comment, boolean inPlace) throws IOException {
+        var banners = new ArrayList<String[]>();
+        var targets = new HashSet<String>();
+        try (var in = spec.equals(STDIN_STDOUT) ? new BufferedReader(new InputStreamReader(System.in))
+                : Files.newBufferedReader(Path.of(spec))) {
+            var lineNumber = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.charAt(0) == LINE_COMMENT) {
+                    continue;
+                }
+                var separator = line.indexOf(SPEC_SEPARATOR);
+                var target = separator < 0 ? (inPlace ? line : STDIN_STDOUT) : line.substring(0, separator);
+                var text = separator < 0 && inPlace ? null : line.substring(separator + 1);
+                if (text != null && text.isBlank()) {
+                    throw new IllegalArgumentException(String.format("%s:%d: No text set!", spec, lineNumber));
+                }
+                if (inPlace && (target.equals(STDIN_STDOUT) || !targets.add(target))) {
+                    throw new IllegalArgumentException(String.format("%s:%d: %s can't be stamped more than once!",
+                            spec, lineNumber, target));
+                }
+                banners.add(new String[] { target, text });
+            }
+        }
+
+        var renderer = new Renderer(width, comment);
+        if (inPlace) {
+            for (var banner : banners) {
+                stamp(Path.of(banner[0]), banner[1], renderer);
+            }
+            return;
+        }
+
+        String target = null;
+        Writer out = null;
+        try {
+            for (var banner : banners) {
+                if (!banner[0].equals(target)) {
+                    close(out);
+                    target = banner[0];
+                    out = target.equals(STDIN_STDOUT) ? DEFAULT_PRINTWRITER
+                            : Files.newBufferedWriter(Path.of(target), StandardOpenOption.CREATE,
+                                    StandardOpenOption.APPEND);
+                }
+                renderer.render(banner[1]).writeTo(out);
+            }
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Puts a banner at the top of a file and refreshes the banners in it.
+     * 
+     * <P>
+     * The file is streamed through once, a line at a time, into a temporary
+     * file in the same directory, which then atomically replaces it (keeping its
+     * permissions, or with the default permissions for a new file), so files of
+     * any size can be stamped without being read into memory, and the file is
+     * never left half written. Only the lines of one banner are held at a time.
+     * 
+     * <P>
+     * A banner is a block of lines shaped like the ones {@link Renderer}
+     * writes with the renderer's comment prefix: a border of dashes, a bare
+     * comment, one or more lines of text, a bare comment and another border.
+     * A banner on the first line of the file is replaced with a banner of
+     * {@code text}; if the file doesn't start with a banner, one is inserted.
+     * Every other banner is rendered again with its own text, so banners made at
+     * another width are brought up to date. Its lines of text are kept as they
+     * are, and only wrapped again if they no longer fit. Every other line is
+     * written with its text unchanged. Files are read and written as UTF-8, and
+     * every line is written ending with a newline ({@code \n}), so CRLF line
+     * endings become LF and a last line without one gets one.
+     * 
+     * @param file     the file to stamp; created if it doesn't exist.
+     * @param text     text of the banner at the top of the file, or {@code null}
+     *                 to only refresh the banners already in it.
+     * @param renderer renders the banners.
+     * @throws IOException if an I/O error occurs or the file isn't UTF-8.
+     */
+    public static void stamp(Path file, String text, Renderer renderer) throws IOException {
+        var dir = file.toAbsolutePath().getParent();
+        var temp = createTemp(dir, "." + file.getFileName());
+        try {
+            var exists = Files.exists(file);
+            if (exists) {
+                try {
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(file));
+                } catch (UnsupportedOperationException e) {
+                    // Not a POSIX file system, so there are no permissions to keep.
+                }
+            }
+            try (var out = Files.newBufferedWriter(temp, UTF_8)) {
+                var stamper = new Stamper(renderer, text, out);
+                if (exists) {
+                    try (var in = new BufferedReader(Channels.newReader(FileChannel.open(file), UTF_8))) {
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            stamper.line(line);
+                        }
+                    } catch (CharacterCodingException e) {
+                        throw new IOException(file + " isn't UTF-8 text (" + e.getMessage() + ")", e);
+                    }
+                }
+                stamper.end();
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Creates an empty temporary file in a directory. Unlike
+     * {@link Files#createTempFile}, which makes it readable by its owner only,
+     * the file gets the permissions any new file gets (0666 less the umask), so
+     * a new file stamped into place ends up with them.
+     */
+    private static Path createTemp(Path dir, String prefix) throws IOException {
+        while (true) {
+            try {
+                return Files.createFile(dir.resolve(prefix + Long.toUnsignedString(
+                        ThreadLocalRandom.current().nextLong()) + ".tmp"));
+            } catch (FileAlreadyExistsException e) {
+                // Try another name.
+            }
+        }
+    }
+
+    /**
+     * Finds the banners in a stream of lines, writing them out refreshed and
+     * every other line with its text unchanged.
+     */
+    private static class Stamper {
+
+        private static final int MAX_BANNER_LINES = 64;
+
+        private final Renderer renderer;
+
+        private final String comment;
+
+        private final String border;
+
+        private final Writer out;
+
+        private String header;
+
+        private List<String> banner;
+
+        private boolean firstLine = true;
+
+        private boolean bannerAtTop;
+
+        Stamper(Renderer renderer, String header, Writer out) {
+            this.renderer = renderer;
+            this.comment = renderer.comment;
+            this.border = comment + SPACE + DASH + DASH + DASH;
+            this.header = header;
+            this.out = out;
+        }
+
+        /**
+         * Takes the next line of the file.
+         */
+        void line(String line) throws IOException {
+            var top = firstLine;
+            firstLine = false;
+            if (banner == null) {
+                if (isBorder(line)) {
+                    banner = new ArrayList<>();
+                    banner.add(line);
+                    bannerAtTop = top;
+                } else {
+                    write(line);
+                }
+                return;
+            }
+
+            banner.add(line);
+            var size = banner.size();
+            if (size == 2 && !isBareComment(line)) {
+                unbanner();
+            } else if (isBorder(line)) {
+                if (size >= 5 && isBareComment(banner.get(size - 2))) {
+                    if (bannerAtTop && header != null) {
+                        renderer.render(header);
+                        header = null;
+                    } else {
+                        writeHeader();
+                        renderer.render(text(banner.subList(2, size - 2)));
+                    }
+                    writeBanner();
+                    banner = null;
+                } else {
+                    unbanner();
+                }
+            } else if (!line.startsWith(comment) || size > MAX_BANNER_LINES) {
+                unbanner();
+            }
+        }
+
+        /**
+         * Takes the end of the file.
+         */
+        void end() throws IOException {
+            if (banner != null) {
+                for (var line : banner) {
+                    write(line);
+                }
+            }
+            writeHeader();
+        }
+
+        /**
+         * Writes the lines of a block that turned out not to be a banner, except
+         * for the last, which is taken again since it may start a banner.
+         */
+        private void unbanner() throws IOException {
+            var lines = banner;
+            banner = null;
+            for (var line : lines.subList(0, lines.size() - 1)) {
+                write(line);
+            }
+            line(lines.get(lines.size() - 1));
+        }
+
+        private void write(String line) throws IOException {
+            writeHeader();
+            out.write(line);
+            out.write('\n');
+        }
+
+        private void writeHeader() throws IOException {
+            if (header != null) {
+                renderer.render(header);
+                writeBanner();
+                header = null;
+            }
+        }
+
+        /**
+         * Writes the banner rendered last with {@code \n} line endings, whatever
+         * the platform's line separator is.
+         */
+        private void writeBanner() throws IOException {
+            if (Renderer.NEWLINE.equals("\n")) {
+                renderer.writeTo(out);
+            } else {
+                out.write(renderer.toString().replace(Renderer.NEWLINE, "\n"));
+            }
+        }
+
+        private boolean isBorder(String line) {
+            var trimmed = line.stripTrailing();
+            if (!trimmed.startsWith(border)) {
+                return false;
+            }
+            for (var i = border.length(); i < trimmed.length(); i++) {
+                if (trimmed.charAt(i) != DASH) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isBareComment(String line) {
+            return line.stripTrailing().equals(comment);
+        }
+
+        /**
+         * Returns the text of a banner's lines of text, one per line.
+         */
+        private String text(List<String> lines) {
+            var text = new StringBuilder();
+            for (var line : lines) {
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(line.substring(comment.length()).strip());
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Flushes the given Writer, closing it unless it writes to
+     * {@link System#out}.
+     * 
+     * @param out the Writer (may be {@code null}).
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void close(Writer out) throws IOException {
+        if (out == null) {
+            return;
+        } else if (out != DEFAULT_PRINTWRITER) {
+            out.close();
+        } else if (DEFAULT_PRINTWRITER.checkError()) {
+            throw new IOException("Error writing banners!");
+        }
+    }
+
     /**
      * Construct a new instance of PropertyBanner.
      * 
      * @param text text for the banner.
      */
     public PropertyBanner(String text) {
-        this.pw = DEFAULT_PRINTWRITER;
-        this.text = text;
-        this.width = DEFAULT_WIDTH;
+        this(text, DEFAULT_WIDTH, String.valueOf(LINE_COMMENT));
     }
 
     /**
-     * Runs the program.
+     * Construct a new instance of PropertyBanner.
+     * 
+     * @param text    text for the banner.
+     * @param width   width of the banner.
+     * @param comment comment prefix, one of {@code #}, {@code //}, {@code --}
+     *                or {@code ;}.
+     * @throws IllegalArgumentException if the comment prefix isn't one of those
+     *                                  or the width is too narrow.
      */
-    @Override
-    public void run() {
-        printBorder();
-        pw.println(LINE_COMMENT);
-        printText();
-        pw.println(LINE_COMMENT);
-        printBorder();
+    public PropertyBanner(String text, int width, String comment) {
+        this(text, width, comment, DEFAULT_PRINTWRITER);
     }
 
     /**
-     * Prints the banner border.
+     * Construct a new instance of PropertyBanner that writes a {@code #}
+     * commented banner to the given Appendable.
+     * 
+     * @param text  text for the banner.
+     * @param width width of the banner.
+     * @param out   Appendable to write the banner to, such as a
+     *              {@link StringBuilder} or a {@link Writer}.
+     * @throws IllegalArgumentException if the width is too narrow.
+     */
+    public PropertyBanner(String text, int width, Appendable out) {
+        this(text, width, String.valueOf(LINE_COMMENT), out);
+    }
+
+    /**
+     * Construct a new instance of PropertyBanner that writes to the given
+     * Appendable.
+     * 
+     * @param text    text for the banner.
+     * @param width   width of the banner.
+     * @param comment comment prefix, one of {@code #}, {@code //}, {@code --}
+     *                or {@code ;}.
+     * @param out     Appendable to write the banner to, such as a
+     *                {@link StringBuilder} or a {@link Writer}.
+     * @throws IllegalArgumentException if the comment prefix isn't one of those
+     *                                  or the width is too narrow.
+     */
+    public PropertyBanner(String text, int width, String comment, Appendable out) {
+        this.text = Objects.requireNonNull(text, "text");
+        this.out = Objects.requireNonNull(out, "out");
+        this.renderer = new Renderer(width, comment);
+    }
+
+    /**
+     * Writes the banner.
+     * 
+     * <P>
+     * The Appendable isn't flushed, so many banners can be written to one
+     * buffered Writer cheaply.
+     * 
+     * @throws IOException if an I/O error occurs.
      */
-    private void printBorder() {
-        var printed = 0;
-        pw.print(LINE_COMMENT);
-        printed++;
-        pw.print(SPACE);
-        printed++;
-        for (var i = printed; i < width; i++) {
-            pw.print(DASH);
-        }
-        pw.println();
-        pw.flush();
+    public void write() throws IOException {
+        renderer.render(text).writeTo(out);
     }
 
     /**
-     * Prints the text centered on an 80-character line.
+     * Runs the program, writing the banner and flushing the Appendable if it
+     * can be flushed.
+     * 
+     * @throws UncheckedIOException if an I/O error occurs.
+     */
+    @Override
+    public void run() {
+        try {
+            write();
+            if (out instanceof Flushable) {
+                ((Flushable) out).flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Renders banners into a reusable buffer.
+     * 
+     * <P>
+     * A renderer builds the whole banner in a {@code char[]} that is reused for
+     * every banner it renders, and hands it to a {@link Writer} in a single
+     * {@link Writer#write(char[], int, int)} call. The border line is built once
+     * per width and shared by every renderer of that width, so rendering a
+     * banner doesn't allocate unless it is longer than any banner rendered
+     * before. Use one renderer per thread to stamp large numbers of banners.
+     * 
+     * <P>
+     * Text is word wrapped in the same pass that writes it: words are added to
+     * a line until the next one doesn't fit, and the line is then centered and
+     * written. A word longer than a whole line is split. A newline in the text
+     * ends a line early, and an empty line between two newlines is written as a
+     * bare comment.
+     * 
+     * <P>
+     * A renderer is also the {@link CharSequence} of the banner it rendered
+     * last, so it can be appended to a {@link StringBuilder} or any other
+     * {@link Appendable}.
      */
-    private void printText() {
-        var spaces = (width - text.length()) / 2;
-        pw.print(LINE_COMMENT);
-        pw.print(SPACE);
-        for (int i = 0; i < spaces - 2; i++) {
-            pw.print(SPACE);
-        }
-        pw.println(text);
-        pw.flush();
+    public static class Renderer implements CharSequence {
+
+        private static final Map<String, char[]> BORDERS = new ConcurrentHashMap<>();
+
+        private static final String NEWLINE = System.lineSeparator();
+
+        private final int width;
+
+        private final String comment;
+
+        private final char[] border;
+
+        private char[] buffer;
+
+        private int length;
+
+        /**
+         * Construct a new Renderer for {@code #} comments.
+         * 
+         * @param width width of the banners, including the comment character.
+         */
+        public Renderer(int width) {
+            this(width, String.valueOf(LINE_COMMENT));
+        }
+
+        /**
+         * Construct a new Renderer.
+         * 
+         * @param width   width of the banners, including the comment prefix.
+         * @param comment comment prefix, one of {@code #}, {@code //},
+         *                {@code --} or {@code ;}.
+         * @throws IllegalArgumentException if the comment prefix isn't one of
+         *                                  those, or the width is less than
+         *                                  {@link #minWidth(String)}.
+         */
+        public Renderer(int width, String comment) {
+            if (!COMMENT_STYLES.contains(comment)) {
+                throw new IllegalArgumentException("Comment needs to be one of " + COMMENT_STYLES + "!");
+            }
+            if (width < minWidth(comment)) {
+                throw new IllegalArgumentException("Width needs to be at least " + minWidth(comment) + "!");
+            }
+            this.width = width;
+            this.comment = comment;
+            this.border = BORDERS.computeIfAbsent(width + comment, key -> border(width, comment));
+            this.buffer = new char[3 * (width + NEWLINE.length())];
+        }
+
+        /**
+         * Returns the narrowest width a banner can have: room for the comment
+         * prefix, a space and a character.
+         * 
+         * @param comment comment prefix.
+         * @return the narrowest width.
+         */
+        public static int minWidth(String comment) {
+            return comment.length() + 2;
+        }
+
+        /**
+         * Renders a banner, replacing the banner rendered before.
+         * 
+         * @param text text for the banner.
+         * @return this renderer, holding the banner.
+         */
+        public Renderer render(String text) {
+            length = 0;
+            append(border, border.length);
+            append(comment);
+            append(NEWLINE);
+
+            var available = width - comment.length() - 1;
+            var lines = 0;
+            var lineStart = -1;
+            var lineEnd = -1;
+            var i = 0;
+            while (i < text.length()) {
+                var c = text.charAt(i);
+                if (c == '\n') {
+                    if (lineStart >= 0) {
+                        appendLine(text, lineStart, lineEnd);
+                    } else {
+                        append(comment);
+                        append(NEWLINE);
+                    }
+                    lines++;
+                    lineStart = -1;
+                    i++;
+                } else if (Character.isWhitespace(c)) {
+                    i++;
+                } else {
+                    var wordStart = i;
+                    while (i < text.length() && !Character.isWhitespace(text.charAt(i))) {
+                        i++;
+                    }
+                    if (lineStart >= 0 && i - lineStart > available) {
+                        appendLine(text, lineStart, lineEnd);
+                        lines++;
+                        lineStart = -1;
+                    }
+                    if (lineStart < 0) {
+                        lineStart = wordStart;
+                    }
+                    while (i - lineStart > available) {
+                        appendLine(text, lineStart, lineStart + available);
+                        lines++;
+                        lineStart += available;
+                    }
+                    lineEnd = i;
+                }
+            }
+            if (lineStart >= 0 || lines == 0) {
+                appendLine(text, Math.max(lineStart, 0), Math.max(lineEnd, 0));
+            }
+
+            append(comment);
+            append(NEWLINE);
+            append(border, border.length);
+            return this;
+        }
+
+        /**
+         * Writes the banner rendered last.
+         * 
+         * <P>
+         * A {@link Writer} is handed the whole buffer in one call; anything else
+         * has this renderer appended to it as a {@link CharSequence}.
+         * 
+         * @param out Appendable to write the banner to.
+         * @throws IOException if an I/O error occurs.
+         */
+        public void writeTo(Appendable out) throws IOException {
+            if (out instanceof Writer) {
+                ((Writer) out).write(buffer, 0, length);
+            } else {
+                out.append(this, 0, length);
+            }
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return buffer[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buffer, 0, length);
+        }
+
+        /**
+         * Returns the border line (including its line separator) for a width and
+         * comment prefix.
+         */
+        private static char[] border(int width, String comment) {
+            var border = new char[width + NEWLINE.length()];
+            Arrays.fill(border, 0, width, DASH);
+            comment.getChars(0, comment.length(), border, 0);
+            border[comment.length()] = SPACE;
+            NEWLINE.getChars(0, NEWLINE.length(), border, width);
+            return border;
+        }
+
+        /**
+         * Appends a line of text centered between the comment prefix and the end
+         * of the line.
+         */
+        private void appendLine(String text, int start, int end) {
+            append(comment);
+            append(SPACE, 1);
+            append(SPACE, (width - (end - start)) / 2 - comment.length() - 1);
+            ensureCapacity(end - start);
+            text.getChars(start, end, buffer, length);
+            length += end - start;
+            append(NEWLINE);
+        }
+
+        private void append(char[] chars, int count) {
+            ensureCapacity(count);
+            System.arraycopy(chars, 0, buffer, length, count);
+            length += count;
+        }
+
+        private void append(String string) {
+            ensureCapacity(string.length());
+            string.getChars(0, string.length(), buffer, length);
+            length += string.length();
+        }
+
+        private void append(char c, int count) {
+            if (count <= 0) {
+                return;
+            }
+            ensureCapacity(count);
+            Arrays.fill(buffer, length, length + count, c);
+            length += count;
+        }
+
+        private void ensureCapacity(int count) {
+            if (length + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            }
+        }
     }
 }
@@ -1,10 +1,77 @@
 import static java.lang.String.format;
+import static java.nio.charset.CodingErrorAction.REPLACE;
+import static java.nio.charset.CodingErrorAction.REPORT;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.EMPTY_MAP;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
 
 /**
  * Like the cat utility, only for entries in a zip file.
@@ -14,37 +81,2584 @@ class ZipCat {
     @SuppressWarnings("unchecked")
     private static final Map<String, String> LOAD_ENV = EMPTY_MAP;
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal
+            .withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private static final int QUEUED_CHUNKS = 16;
+
+    private static final String GLOB_CHARS = "*?[{";
+
+    private static final String NESTED_SEPARATOR = "!/";
+
+    private static final String STDIN = "-";
+
+    private static final String INDEX_DIR = ".cache/ZipCat";
+
+    private static final String LIST_FORMAT = "%12d  %-7s %12d %4d%%  %s  %08x  %s%n";
+
+    private static final DateTimeFormatter LIST_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final boolean binary;
+
+    private final boolean headers;
+
+    private final boolean list;
+
+    private final Pattern search;
+
+    private final Part part;
+
+    private final WritableByteChannel out;
+
+    private final Writer writer;
+
+    private final ThreadLocal<LineReader> lineReaders;
+
     /**
-     * Print the contents of an entry in a zip file to the screen.
+     * Print the contents of entries in a zip file to the screen.
      * 
      * <p>
-     * This program takes 2 arguments:
+     * This program takes at least 2 arguments:
      * 
      * <ul>
      * <li>path to the zip file.
-     * <li>path to the entry in the zip file to print.
+     * <li>one or more paths or glob patterns of entries in the zip file to print.
      * </ul>
      * 
      * If the path to the zip file is not absolute, then it is relative to the
-     * current directory.
+     * current directory. The zip file is opened once no matter how many entries
+     * are printed. Entries are printed in the order they are given; entries
+     * matching a glob pattern are printed sorted by name.
+     * 
+     * <p>
+     * The path to the zip file can name an archive nested in it by appending
+     * {@code !/} and the inner archive's entry name, as many levels deep as
+     * needed (for example {@code app.ear!/web.war!/WEB-INF/lib/x.jar}). If only
+     * one argument is given, its last {@code !/} segment is the entry to print.
+     * Nested archives are never extracted to temporary files. See
+     * {@link #catNested(Archive, List, List, int)} for how they're read.
+     * 
+     * <p>
+     * By default entries are read as UTF-8 text and printed line by line. The
+     * {@code --charset name} option reads them in another character set, and the
+     * {@code --lenient} option replaces bytes that aren't valid in the character
+     * set instead of stopping with an error. See {@link LineReader}. If the
+     * {@code -b} option is given before the arguments, the entries' bytes are
+     * copied to {@link System#out} unchanged, which is faster for large entries
+     * and works for entries that aren't text. Entries that are STORED (not
+     * compressed) are then transferred straight from the zip file to
+     * {@link System#out} without passing through a buffer in the JVM; see
+     * {@link RangeChannel}. If the {@code -H} option is given,
+     * a header with the entry name is printed before each entry.
+     * 
+     * <p>
+     * If the {@code -j n} option is given, up to {@code n} entries are
+     * decompressed at the same time. Output is still written in order; each
+     * entry waiting its turn buffers at most {@value #QUEUED_CHUNKS} chunks of
+     * {@value #BUFFER_SIZE} bytes before its decompression blocks.
+     * 
+     * <p>
+     * If the {@code -I} option is given, entries are looked up in an index of
+     * the zip file's central directory kept in {@value #INDEX_DIR} under the
+     * user's home directory instead of through the zip file system provider. The
+     * index is written on the first run and reused until the zip file's size or
+     * modification time changes. See {@link IndexedArchive}.
+     * 
+     * <p>
+     * If the {@code -g regex} option is given, entries are searched instead of
+     * printed, and each line matching the regular expression is printed as
+     * {@code entry:line number:line}, like {@code grep -n} over several files.
+     * With the {@code -F} option the pattern is a literal string. If no entries
+     * are given, every entry is searched. Entries that aren't valid UTF-8 are
+     * still searched, with bad bytes replaced, so references in class files can
+     * be found too. Searching works with {@code -j}, nested archives and
+     * {@code -I}.
+     * 
+     * <p>
+     * If the {@code -l} option is given, entries are listed instead of printed:
+     * one line per entry with its uncompressed size, compression method,
+     * compressed size, compression ratio, modification time, CRC-32 and name,
+     * taken from the central directory without decompressing anything. If no
+     * entries are given, every entry is listed. See {@link #list(Archive, List)}.
+     * 
+     * <p>
+     * The {@code --bytes start-end}, {@code --head n} and {@code --tail n}
+     * options print only part of each entry: the bytes from {@code start} to
+     * {@code end} inclusive (to the end of the entry if {@code end} is left
+     * out), the first {@code n} lines or the last {@code n} lines. Lines end
+     * with {@code \n}, and the bytes are printed as-is. See
+     * {@link #printPart(ReadableByteChannel)}.
+     * 
+     * <p>
+     * If the {@code -d other} option is given, the zip file is compared with
+     * another zip file instead, printing the entries that were added, deleted or
+     * modified. See {@link #diff(Archive, Archive, List, int)}.
+     * 
+     * <p>
+     * If the zip file is {@value #STDIN}, the zip file is read front to back
+     * from standard input as it arrives, so an archive can be piped in from a
+     * download without being saved first. See
+     * {@link #catStream(EntryStream, List, List)}.
+     * 
+     * <p>
+     * The zip file can also be a tar file, a gzipped tar file or a gzipped file,
+     * found from its first bytes. These are read front to back like a zip file
+     * on standard input, with the same entry names and glob patterns. See
+     * {@link EntryStream}.
      * 
      * @param args the command line arguments.
      */
     public static void main(String... args) {
 
-        if (args.length < 2) {
-            System.err.printf("Usage: %s <zipfile> <zipfile entry>%n", ZipCat.class.getSimpleName());
-            System.exit(1);
+        var argIdx = 0;
+        var binary = false;
+        var headers = false;
+        var jobs = 0;
+        var indexed = false;
+        String search = null;
+        var literal = false;
+        var list = false;
+        Part part = null;
+        Path other = null;
+        var charset = UTF_8;
+        var lenient = false;
+        while (argIdx < args.length && args[argIdx].startsWith("-")
+                && !args[argIdx].split(NESTED_SEPARATOR)[0].equals(STDIN)) {
+            switch (args[argIdx]) {
+                case "-b":
+                    binary = true;
+                    break;
+                case "-d":
+                    if (++argIdx == args.length) {
+                        showUsageAndExit("Option -d needs an argument");
+                    }
+                    other = Path.of(args[argIdx]).toAbsolutePath();
+                    break;
+                case "-F":
+                    literal = true;
+                    break;
+                case "-g":
+                    if (++argIdx == args.length) {
+                        showUsageAndExit("Option -g needs an argument");
+                    }
+                    search = args[argIdx];
+                    break;
+                case "-H":
+                    headers = true;
+                    break;
+                case "-I":
+                    indexed = true;
+                    break;
+                case "-j":
+                    jobs = (int) parseNumber(args, ++argIdx, 1, Integer.MAX_VALUE);
+                    break;
+                case "-l":
+                    list = true;
+                    break;
+                case "--charset":
+                    charset = parseCharset(args, ++argIdx);
+                    break;
+                case "--lenient":
+                    lenient = true;
+                    break;
+                case "--bytes":
+                    part = parseBytes(args, ++argIdx, part);
+                    break;
+                case "--head":
+                    part = Part.head(parseNumber(args, ++argIdx, 0, Long.MAX_VALUE), part);
+                    break;
+                case "--tail":
+                    part = Part.tail(parseNumber(args, ++argIdx, 0, Long.MAX_VALUE), part);
+                    break;
+                default:
+                    showUsageAndExit(format("Unknown option %s", args[argIdx]));
+                    break;
+            }
+            argIdx++;
+        }
+
+        if (argIdx == args.length) {
+            showUsageAndExit(null);
         }
 
-        var fileuri = URI.create(format("jar:file:%s", args[0]));
+        var nesting = new ArrayList<>(List.of(args[argIdx].split(NESTED_SEPARATOR)));
+        var stdin = nesting.get(0).equals(STDIN);
+        var zipfile = Path.of(nesting.remove(0)).toAbsolutePath();
+        var patterns = List.of(args).subList(argIdx + 1, args.length);
+        if (other != null && !nesting.isEmpty()) {
+            showUsageAndExit("Option -d can't compare nested archives");
+        }
+        if (stdin && (other != null || indexed)) {
+            showUsageAndExit(format("Options -d and -I can't read from %s", STDIN));
+        }
+        if (patterns.isEmpty() && search == null && !list && other == null) {
+            if (nesting.isEmpty()) {
+                showUsageAndExit(null);
+            }
+            patterns = List.of(nesting.remove(nesting.size() - 1));
+        }
 
-        try (var fs = FileSystems.newFileSystem(fileuri, LOAD_ENV)) {
-            var entryToCat = fs.getPath(args[1]);
-            Files.lines(entryToCat).forEach(s -> System.out.println(s));
+        var stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+        try {
+            var app = new ZipCat(binary, headers, list,
+                    search == null ? null : Pattern.compile(search, literal ? Pattern.LITERAL : 0), part, charset,
+                    lenient, stdout);
+            if (stdin) {
+                app.catStream(EntryStream.open(new BufferedInputStream(System.in, BUFFER_SIZE), STDIN), nesting,
+                        patterns);
+            } else if (Format.of(zipfile) != Format.ZIP) {
+                if (other != null || indexed) {
+                    showUsageAndExit(format("Options -d and -I need a zip file, got %s", zipfile.getFileName()));
+                }
+                try (var in = EntryStream.open(new BufferedInputStream(Files.newInputStream(zipfile), BUFFER_SIZE),
+                        zipfile.getFileName().toString())) {
+                    app.catStream(in, nesting, patterns);
+                }
+            } else if (other != null) {
+                if (Format.of(other) != Format.ZIP) {
+                    showUsageAndExit(format("Option -d needs a zip file to compare with, got %s",
+                            other.getFileName()));
+                }
+                try (var ch = FileChannel.open(zipfile); var otherCh = FileChannel.open(other)) {
+                    app.diff(indexed ? IndexedArchive.open(ch, zipfile) : Archive.open(ch, 0, ch.size()),
+                            indexed ? IndexedArchive.open(otherCh, other) : Archive.open(otherCh, 0, otherCh.size()),
+                            patterns, jobs > 0 ? jobs : Runtime.getRuntime().availableProcessors());
+                }
+            } else if (nesting.isEmpty() && !indexed && !binary && !list && part == null) {
+                var fileuri = URI.create(format("jar:%s", zipfile.toUri()));
+                try (var fs = FileSystems.newFileSystem(fileuri, LOAD_ENV)) {
+                    var zipfs = new ZipFsContainer(fs);
+                    app.catAll(zipfs, resolve(zipfs, patterns), jobs);
+                }
+            } else {
+                try (var ch = FileChannel.open(zipfile)) {
+                    var archive = indexed ? IndexedArchive.open(ch, zipfile) : Archive.open(ch, 0, ch.size());
+                    app.catNested(archive, nesting, patterns, jobs);
+                }
+            }
         } catch (Exception e) {
+            if (isClosedOutput(e, stdout)) {
+                // Whatever was reading the output (head, less, ...) has seen
+                // enough; stop quietly like cat does.
+                System.exit(0);
+            }
             System.err.printf("%s: error: %s%n", ZipCat.class.getSimpleName(), e.getMessage());
             System.exit(1);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns {@code true} if the exception, or one that caused it, means
+     * the output has been closed: a write to a pipe with no reader left
+     * ({@code EPIPE}) or to a channel that is no longer open.
+     */
+    private static boolean isClosedOutput(Throwable e, WritableByteChannel out) {
+        for (var cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ClosedChannelException && !out.isOpen()) {
+                return true;
+            }
+            if (cause instanceof IOException && "Broken pipe".equals(cause.getMessage())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Show an optional error message followed by a usage message and exit with
+     * status code 1.
+     * 
+     * @param message error message (not printed if {@code null}).
+     */
+    private static void showUsageAndExit(String message) {
+        if (message != null) {
+            System.err.println(message);
+        }
+        System.err.printf("Usage: %s [-b] [-H] [-I] [-l] [-j <n>] [-g <regex> [-F]] [-d <other zipfile>]"
+                + " [--charset <name>] [--lenient]"
+                + " [--bytes <start>-[<end>] | --head <n> | --tail <n>]"
+                + " <zipfile|->[!/<nested archive>...] [<zipfile entry|glob>...]%n", ZipCat.class.getSimpleName());
+        System.exit(1);
+    }
+
+    private static long parseNumber(String[] args, int argIdx, long min, long max) {
+        var option = args[argIdx - 1];
+        if (argIdx >= args.length) {
+            showUsageAndExit(format("Option %s needs an argument", option));
+        }
+        try {
+            var number = Long.parseLong(args[argIdx]);
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the usage message.
+        }
+        showUsageAndExit(format("Option %s needs a number from %d to %d, got %s", option, min, max, args[argIdx]));
+        return min;
+    }
+
+    private static Charset parseCharset(String[] args, int argIdx) {
+        if (argIdx >= args.length) {
+            showUsageAndExit("Option --charset needs an argument");
+        }
+        try {
+            return Charset.forName(args[argIdx]);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            showUsageAndExit(format("Option --charset needs a supported character set, got %s", args[argIdx]));
+            return UTF_8;
+        }
+    }
+
+    private static Part parseBytes(String[] args, int argIdx, Part part) {
+        if (argIdx >= args.length) {
+            showUsageAndExit("Option --bytes needs an argument");
+        }
+        var range = args[argIdx].split("-", -1);
+        try {
+            if (range.length == 2) {
+                var start = Long.parseLong(range[0]);
+                var end = range[1].isEmpty() ? Long.MAX_VALUE : Long.parseLong(range[1]);
+                if (start >= 0 && end >= start) {
+                    return Part.bytes(start, end, part);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the usage message.
+        }
+        showUsageAndExit(format("Option --bytes needs a range like 100-199 or 100-, got %s", args[argIdx]));
+        return part;
+    }
+
+    /**
+     * Resolve entry names and glob patterns to entry names in a container.
+     * 
+     * <p>
+     * Plain entry names are returned as-is so a missing entry is reported when
+     * it is read. Glob patterns are matched against every file in the container
+     * using the container's {@link Container#matcher(String) matcher}. The names
+     * are only listed once, and only if there is at least one glob pattern. An
+     * entry matched more than once is returned once. If there are no patterns,
+     * every file in the container is returned.
+     * 
+     * @param container the container.
+     * @param patterns  entry names or glob patterns.
+     * @return names of the entries to print, in order.
+     * @throws IOException if a glob pattern matches nothing or an I/O error
+     *                     occurs.
+     */
+    private static Set<String> resolve(Container container, List<String> patterns) throws IOException {
+        if (patterns.isEmpty()) {
+            return new LinkedHashSet<>(container.names());
+        }
+        List<String> names = null;
+        var resolved = new LinkedHashSet<String>();
+        for (var pattern : patterns) {
+            if (!isGlob(pattern)) {
+                resolved.add(pattern);
+                continue;
+            }
+            if (names == null) {
+                names = container.names();
+            }
+            var matcher = container.matcher(pattern);
+            var matched = names.stream().filter(matcher).collect(Collectors.toList());
+            if (matched.isEmpty()) {
+                throw new NoSuchFileException(pattern, null, "no entries match");
+            }
+            resolved.addAll(matched);
+        }
+        return resolved;
+    }
+
+    private static boolean isGlob(String pattern) {
+        return pattern.chars().anyMatch(c -> GLOB_CHARS.indexOf(c) >= 0);
+    }
+
+    /**
+     * Construct a new instance of ZipCat.
+     * 
+     * @param binary  if {@code true}, copy bytes instead of printing lines.
+     * @param headers if {@code true}, print a header before each entry.
+     * @param list    if {@code true}, list entries instead of printing them.
+     * @param search  if not {@code null}, print only lines matching this
+     *                pattern, prefixed with the entry name and line number.
+     * @param part    if not {@code null}, print only this part of each entry.
+     * @param charset character set to read entries in.
+     * @param lenient if {@code true}, replace bytes that aren't valid in
+     *                {@code charset} instead of failing. Searching is always
+     *                lenient.
+     * @param out     channel to write output to.
+     */
+    ZipCat(boolean binary, boolean headers, boolean list, Pattern search, Part part, Charset charset,
+            boolean lenient, WritableByteChannel out) {
+        this(binary, headers, list, search, part,
+                ThreadLocal.withInitial(() -> new LineReader(charset, lenient || search != null)), out);
+    }
+
+    private ZipCat(boolean binary, boolean headers, boolean list, Pattern search, Part part,
+            ThreadLocal<LineReader> lineReaders, WritableByteChannel out) {
+        this.binary = binary;
+        this.headers = headers;
+        this.list = list;
+        this.search = search;
+        this.part = part;
+        this.lineReaders = lineReaders;
+        this.out = out;
+        this.writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(out)));
+    }
+
+    /**
+     * Construct a new instance of ZipCat with the same settings as another one
+     * but writing to a different channel.
+     * 
+     * @param settings instance to copy the settings of.
+     * @param out      channel to write output to.
+     */
+    private ZipCat(ZipCat settings, WritableByteChannel out) {
+        this(settings.binary, settings.headers, settings.list, settings.search, settings.part, settings.lineReaders,
+                out);
+    }
+
+    /**
+     * Print entries in order.
+     * 
+     * <p>
+     * If {@code jobs} is more than 1, entries are read on a pool of that many
+     * threads, each writing into its own bounded {@link ChunkQueue}. This thread
+     * drains the queues one entry at a time in order, so output looks exactly
+     * like it would if the entries were read one after another. Only
+     * {@code jobs} entries are queued at a time: the entry {@code jobs} places
+     * after one is submitted when that one has been drained, so memory use
+     * depends on {@code jobs} and not on the number of entries.
+     * 
+     * @param container container holding the entries.
+     * @param names     names of the entries in the container.
+     * @param jobs      maximum number of entries to read at the same time.
+     * @throws IOException if an I/O error occurs.
+     */
+    void catAll(Container container, Collection<String> names, int jobs) throws IOException {
+        if (jobs < 2 || names.size() < 2) {
+            for (var name : names) {
+                cat(name, container.open(name));
+            }
+            return;
+        }
+        var pool = newPool(Math.min(jobs, names.size()));
+        try {
+            var queues = new ArrayDeque<ChunkQueue>(jobs);
+            var remaining = names.iterator();
+            while (queues.size() < jobs && remaining.hasNext()) {
+                queues.add(submit(pool, container, remaining.next()));
+            }
+            writer.flush();
+            while (!queues.isEmpty()) {
+                queues.remove().drainTo(out);
+                if (remaining.hasNext()) {
+                    queues.add(submit(pool, container, remaining.next()));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private ChunkQueue submit(ExecutorService pool, Container container, String name) {
+        var queue = new ChunkQueue();
+        pool.execute(() -> {
+            try {
+                new ZipCat(this, queue).cat(name, container.open(name));
+                queue.close();
+            } catch (Exception e) {
+                queue.fail(e);
+            }
+        });
+        return queue;
+    }
+
+    /**
+     * Print the differences between two archives.
+     * 
+     * <p>
+     * Entries are matched by name and compared by the size and CRC-32 recorded
+     * in the central directories, so unchanged entries are never decompressed.
+     * Only entries whose size or CRC-32 differ are decompressed, on a pool of
+     * {@code jobs} threads, to compute the SHA-256 digests of both versions.
+     * Directories are ignored. One line is printed per difference, sorted by
+     * name, with tab separated fields:
+     * 
+     * <ul>
+     * <li>{@code A name} for an entry only in {@code after}.
+     * <li>{@code D name} for an entry only in {@code before}.
+     * <li>{@code M name before-digest after-digest} for an entry whose contents
+     * changed.
+     * </ul>
+     * 
+     * @param before   the archive to compare from.
+     * @param after    the archive to compare to.
+     * @param patterns entry names or glob patterns limiting the entries
+     *                 compared; every entry is compared if empty.
+     * @param jobs     maximum number of entries to hash at the same time.
+     * @throws IOException if an I/O error occurs.
+     */
+    void diff(Archive before, Archive after, List<String> patterns, int jobs) throws IOException {
+        var filter = patterns.stream()
+                .map(pattern -> isGlob(pattern) ? Container.defaultMatcher(pattern) : (Predicate<String>) pattern::equals)
+                .reduce(Predicate::or).orElse(name -> true);
+        var names = new TreeSet<String>();
+        var beforeEntries = new LinkedHashMap<String, Entry>();
+        for (var entry : before.entries()) {
+            if (!entry.isDirectory() && filter.test(entry.name())) {
+                beforeEntries.put(entry.name(), entry);
+                names.add(entry.name());
+            }
+        }
+        var afterEntries = new LinkedHashMap<String, Entry>();
+        for (var entry : after.entries()) {
+            if (!entry.isDirectory() && filter.test(entry.name())) {
+                afterEntries.put(entry.name(), entry);
+                names.add(entry.name());
+            }
+        }
+
+        var pool = newPool(jobs);
+        try {
+            var digests = new LinkedHashMap<String, Future<String>>();
+            for (var name : names) {
+                var from = beforeEntries.get(name);
+                var to = afterEntries.get(name);
+                if (from != null && to != null && (from.size() != to.size() || from.crc() != to.crc())) {
+                    digests.put(name, pool.submit(() -> sha256(before, from) + '\t' + sha256(after, to)));
+                }
+            }
+            for (var name : names) {
+                if (!beforeEntries.containsKey(name)) {
+                    writer.write("A\t" + name + System.lineSeparator());
+                } else if (!afterEntries.containsKey(name)) {
+                    writer.write("D\t" + name + System.lineSeparator());
+                } else if (digests.containsKey(name)) {
+                    writer.write("M\t" + name + '\t' + digests.get(name).get() + System.lineSeparator());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            writer.flush();
+        }
+    }
+
+    private static String sha256(Archive archive, Entry entry) throws IOException {
+        try (var in = new DigestInputStream(archive.newInputStream(entry), MessageDigest.getInstance("SHA-256"))) {
+            var buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // Read to the end to digest the whole entry.
+            }
+            return HexFormat.of().formatHex(in.getMessageDigest().digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static ExecutorService newPool(int threads) {
+        return Executors.newFixedThreadPool(threads, r -> {
+            var thread = new Thread(r, ZipCat.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Print (or list) entries of an archive nested in another archive.
+     * 
+     * <p>
+     * Each nested archive that is STORED is read in place: its bytes are a
+     * contiguous range of the outer file, so its central directory is read
+     * straight from that range and its entries can still be read in any order
+     * (and in parallel). Once a nested archive is compressed (or is a tar or
+     * gzip file), it and everything inside it are read front to back as an
+     * {@link EntryStream}, printing matching entries as they are found. Nothing
+     * is written to temporary files either way.
+     * 
+     * @param archive  the outermost archive.
+     * @param nesting  names of the nested archives, outermost first.
+     * @param patterns entry names or glob patterns in the innermost archive.
+     * @param jobs     maximum number of entries to read at the same time.
+     * @throws IOException if an I/O error occurs.
+     */
+    void catNested(Archive archive, List<String> nesting, List<String> patterns, int jobs) throws IOException {
+        for (var i = 0; i < nesting.size(); i++) {
+            var entry = archive.entry(nesting.get(i));
+            if (entry.method() != Archive.STORED || !isZip(archive, entry)) {
+                try (var in = EntryStream.open(new BufferedInputStream(archive.newInputStream(entry), BUFFER_SIZE),
+                        entry.name())) {
+                    catStream(in, nesting.subList(i + 1, nesting.size()), patterns);
+                }
+                return;
+            }
+            archive = archive.nested(entry);
+        }
+        if (list) {
+            list(archive, patterns);
+        } else {
+            catAll(archive, resolve(archive, patterns), jobs);
+        }
+    }
+
+    private static boolean isZip(Archive archive, Entry entry) throws IOException {
+        try (var in = archive.newInputStream(entry)) {
+            return Format.of(in.readNBytes(Format.HEAD_SIZE)) == Format.ZIP;
+        }
+    }
+
+    /**
+     * List entries of an archive from its central directory.
+     * 
+     * <p>
+     * Nothing is decompressed, so listing takes the same time no matter how big
+     * the entries are. The entry name is always the last column and starts at
+     * the same position on every line, so the output can be cut and fed back in
+     * as entry names.
+     * 
+     * @param archive  the archive.
+     * @param patterns entry names or glob patterns; every entry (including
+     *                 directories) is listed if empty.
+     * @throws IOException if a named entry doesn't exist, a glob pattern matches
+     *                     nothing or an I/O error occurs.
+     */
+    void list(Archive archive, List<String> patterns) throws IOException {
+        if (headers) {
+            writer.write(format("%12s  %-7s %12s %5s  %-19s  %-8s  %s%n", "Length", "Method", "Size", "Cmpr",
+                    "Modified", "CRC-32", "Name"));
+        }
+        if (patterns.isEmpty()) {
+            for (var entry : archive.entries()) {
+                listEntry(entry.name(), entry.size(), entry.compressedSize(), entry.method(), entry.crc(),
+                        entry.modified());
+            }
+        } else {
+            for (var name : resolve(archive, patterns)) {
+                var entry = archive.entry(name);
+                listEntry(name, entry.size(), entry.compressedSize(), entry.method(), entry.crc(),
+                        entry.modified());
+            }
+        }
+        writer.flush();
+    }
+
+    private void listEntry(String name, long size, long compressedSize, int method, long crc,
+            LocalDateTime modified) throws IOException {
+        var ratio = size == 0 ? 0 : Math.round(100.0 * (size - compressedSize) / size);
+        writer.write(format(LIST_FORMAT, size, methodName(method), compressedSize, ratio,
+                LIST_TIME_FORMAT.format(modified), crc, name));
+    }
+
+    private static String methodName(int method) {
+        switch (method) {
+            case Archive.STORED:
+                return "Stored";
+            case Archive.DEFLATED:
+                return "Defl";
+            default:
+                return format("Unk:%03d", method);
+        }
+    }
+
+    /**
+     * Print entries of a zip, tar or gzip file being read front to back.
+     * 
+     * <p>
+     * Entries are printed in the order they appear in the stream, not in the
+     * order the patterns are given. If there are no patterns, every entry is
+     * printed. When listing, each matching entry has to be read through to learn
+     * its sizes and CRC-32 because a compressed archive has no central directory
+     * that can be read first. Archives nested in the stream can be in any of
+     * the formats too.
+     * 
+     * @param in       the stream, positioned before its first entry.
+     * @param nesting  names of archives nested in the stream, outermost first.
+     * @param patterns entry names or glob patterns in the innermost archive.
+     * @throws IOException if a named entry or nested archive isn't found, a glob
+     *                     pattern matches nothing or an I/O error occurs.
+     */
+    void catStream(EntryStream in, List<String> nesting, List<String> patterns) throws IOException {
+        if (!nesting.isEmpty()) {
+            var name = nesting.get(0);
+            var entryName = in.entryName(name);
+            for (var entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                if (entry.getName().equals(entryName)) {
+                    catStream(EntryStream.open(new BufferedInputStream(in, BUFFER_SIZE), name),
+                            nesting.subList(1, nesting.size()), patterns);
+                    return;
+                }
+            }
+            throw new NoSuchFileException(name);
+        }
+
+        var unmatched = new LinkedHashMap<String, Predicate<String>>();
+        for (var pattern : patterns) {
+            var entryName = in.entryName(pattern);
+            unmatched.put(pattern, isGlob(entryName) ? Container.defaultMatcher(entryName) : entryName::equals);
+        }
+        var matchers = List.copyOf(unmatched.entrySet());
+        for (var entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+            var name = entry.getName();
+            var matched = patterns.isEmpty() && (list || !entry.isDirectory());
+            for (var matcher : matchers) {
+                if (!entry.isDirectory() && matcher.getValue().test(name)) {
+                    unmatched.remove(matcher.getKey());
+                    matched = true;
+                }
+            }
+            if (matched && list) {
+                listStreamEntry(in, entry);
+            } else if (matched) {
+                cat(name, Channels.newChannel(new FilterInputStream(in) {
+                    @Override
+                    public void close() {
+                        // The next entry is read from the same stream.
+                    }
+                }));
+            }
+        }
+        if (!unmatched.isEmpty()) {
+            var pattern = unmatched.keySet().iterator().next();
+            throw new NoSuchFileException(pattern, null, isGlob(pattern) ? "no entries match" : null);
+        }
+    }
+
+    private void listStreamEntry(EntryStream in, ZipEntry entry) throws IOException {
+        in.closeEntry();
+        listEntry(entry.getName(), entry.getSize(), entry.getCompressedSize(), entry.getMethod(), entry.getCrc(),
+                entry.getTimeLocal());
+        writer.flush();
+    }
+
+    /**
+     * Print an entry, preceded by its header if headers are turned on.
+     * 
+     * @param name name of the entry.
+     * @param in   channel to read the entry from, closed when done.
+     * @throws IOException if an I/O error occurs.
+     */
+    void cat(String name, ReadableByteChannel in) throws IOException {
+        try (in) {
+            if (headers && search == null) {
+                writer.write(format("==> %s <==%n", name));
+            }
+            if (search != null) {
+                grep(name, in);
+            } else if (part != null) {
+                writer.flush();
+                printPart(in);
+            } else if (binary) {
+                writer.flush();
+                copyBytes(in, out);
+            } else {
+                lineReaders.get().read(name, in, line -> {
+                    writer.write(line.array(), line.position(), line.remaining());
+                    writer.write(System.lineSeparator());
+                });
+            }
+        } finally {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Print part of an entry.
+     * 
+     * <p>
+     * When the entry is STORED and read from an {@link Archive}, the part is
+     * found by seeking: a byte range is transferred straight from the file, and
+     * the last lines are found by reading backwards from the end of the entry.
+     * Otherwise the entry is decompressed from the start, and decompression
+     * stops as soon as the byte range or the first lines have been printed. The
+     * last lines of a compressed entry are kept in a {@link LineRing}, so memory
+     * use depends on the length of those lines and not on the size of the entry.
+     * 
+     * @param in channel to read the entry from.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void printPart(ReadableByteChannel in) throws IOException {
+        var stored = in instanceof RangeChannel ? (RangeChannel) in : null;
+        if (part.tailLines() >= 0) {
+            if (stored != null) {
+                stored.skip(stored.tailOffset(part.tailLines()));
+                stored.transferTo(out);
+            } else {
+                var ring = new LineRing((int) Math.min(part.tailLines(), Integer.MAX_VALUE - 1));
+                var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (in.read(buffer.clear()) != -1) {
+                    ring.add(buffer.array(), buffer.position());
+                }
+                ring.writeTo(out);
+            }
+        } else if (part.headLines() >= 0) {
+            copyLines(in, part.headLines());
+        } else if (stored != null) {
+            stored.skip(part.start());
+            stored.limit(part.end() - part.start() + (part.end() == Long.MAX_VALUE ? 0 : 1));
+            stored.transferTo(out);
+        } else {
+            copyRange(in, part.start(), part.end() == Long.MAX_VALUE ? Long.MAX_VALUE : part.end() + 1);
+        }
+    }
+
+    /**
+     * Copy lines from one channel to another, stopping after the given number of
+     * lines.
+     */
+    private void copyLines(ReadableByteChannel in, long lines) throws IOException {
+        var buffer = BUFFER.get();
+        var remaining = lines;
+        while (remaining > 0 && in.read(buffer.clear()) != -1) {
+            buffer.flip();
+            for (var i = buffer.position(); i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n' && --remaining == 0) {
+                    buffer.limit(i + 1);
+                    break;
+                }
+            }
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Copy the bytes from {@code start} up to (not including) {@code end} from
+     * one channel to another, reading and discarding the bytes before
+     * {@code start}.
+     */
+    private void copyRange(ReadableByteChannel in, long start, long end) throws IOException {
+        var buffer = BUFFER.get();
+        var position = 0L;
+        while (position < end && in.read(buffer.clear()) != -1) {
+            buffer.flip();
+            var chunkStart = position;
+            position += buffer.remaining();
+            if (position <= start) {
+                continue;
+            }
+            buffer.position((int) Math.max(0, start - chunkStart));
+            buffer.limit((int) Math.min(buffer.limit(), end - chunkStart));
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Print the lines of an entry that match the search pattern.
+     * 
+     * <p>
+     * The entry is decoded as it is read, replacing bytes that aren't valid
+     * UTF-8, and a single {@link java.util.regex.Matcher} is reset for each line
+     * rather than created per line.
+     * 
+     * @param name name of the entry.
+     * @param in   channel to read the entry from.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void grep(String name, ReadableByteChannel in) throws IOException {
+        var matcher = search.matcher("");
+        var lineNumber = new long[1];
+        lineReaders.get().read(name, in, line -> {
+            lineNumber[0]++;
+            if (matcher.reset(line).find()) {
+                writer.write(name);
+                writer.write(':');
+                writer.write(Long.toString(lineNumber[0]));
+                writer.write(':');
+                writer.write(line.array(), line.position(), line.remaining());
+                writer.write(System.lineSeparator());
+            }
+        });
+    }
+
+    /**
+     * Copy bytes from one channel to another without decoding them.
+     * 
+     * <p>
+     * A direct buffer per thread is reused for every read so the copy doesn't
+     * allocate per chunk. The bytes of a STORED entry in an {@link Archive} are
+     * transferred by the operating system instead.
+     * 
+     * @param in  channel to read from.
+     * @param out channel to write the bytes to.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void copyBytes(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        if (in instanceof RangeChannel) {
+            ((RangeChannel) in).transferTo(out);
+            return;
+        }
+        var buffer = BUFFER.get();
+        buffer.clear();
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Named entries that can be read in any order.
+     */
+    interface Container {
+
+        /**
+         * Returns the names of every file (not directory) in this container,
+         * sorted.
+         * 
+         * @return the names.
+         * @throws IOException if an I/O error occurs.
+         */
+        List<String> names() throws IOException;
+
+        /**
+         * Opens an entry for reading.
+         * 
+         * @param name name of the entry.
+         * @return channel to read the entry's bytes from.
+         * @throws IOException if the entry doesn't exist or an I/O error occurs.
+         */
+        ReadableByteChannel open(String name) throws IOException;
+
+        /**
+         * Returns a predicate matching entry names against a glob pattern.
+         * 
+         * @param glob the glob pattern.
+         * @return the predicate.
+         */
+        default Predicate<String> matcher(String glob) {
+            return defaultMatcher(glob);
+        }
+
+        /**
+         * Returns a predicate matching entry names against a glob pattern using
+         * the default file system's {@link java.nio.file.PathMatcher}.
+         * 
+         * @param glob the glob pattern.
+         * @return the predicate.
+         */
+        static Predicate<String> defaultMatcher(String glob) {
+            var matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            return name -> matcher.matches(Path.of(name));
+        }
+    }
+
+    /**
+     * Container backed by the zip file system provider.
+     */
+    static class ZipFsContainer implements Container {
+
+        private final FileSystem fs;
+
+        private final Path root;
+
+        ZipFsContainer(FileSystem fs) {
+            this.fs = fs;
+            this.root = fs.getPath("/");
+        }
+
+        @Override
+        public List<String> names() throws IOException {
+            try (var walk = Files.walk(root)) {
+                return walk.filter(Files::isRegularFile).sorted().map(p -> root.relativize(p).toString())
+                        .collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public ReadableByteChannel open(String name) throws IOException {
+            return Files.newByteChannel(root.resolve(name));
+        }
+
+        @Override
+        public Predicate<String> matcher(String glob) {
+            var matcher = fs.getPathMatcher("glob:" + glob);
+            return name -> matcher.matches(fs.getPath(name));
+        }
+    }
+
+    /**
+     * Part of an entry to print instead of all of it: either a byte range, the
+     * first lines or the last lines. Unused values are -1.
+     * 
+     * @param start     first byte to print.
+     * @param end       last byte to print.
+     * @param headLines number of lines to print from the start.
+     * @param tailLines number of lines to print from the end.
+     */
+    record Part(long start, long end, long headLines, long tailLines) {
+
+        static Part bytes(long start, long end, Part previous) {
+            checkUnset(previous);
+            return new Part(start, end, -1, -1);
+        }
+
+        static Part head(long lines, Part previous) {
+            checkUnset(previous);
+            return new Part(-1, -1, lines, -1);
+        }
+
+        static Part tail(long lines, Part previous) {
+            checkUnset(previous);
+            return new Part(-1, -1, -1, lines);
+        }
+
+        private static void checkUnset(Part previous) {
+            if (previous != null) {
+                showUsageAndExit("Only one of --bytes, --head and --tail can be set");
+            }
+        }
+    }
+
+    /**
+     * Splits a channel into lines of text with a reusable decoder and buffers.
+     * 
+     * <p>
+     * Bytes are decoded a buffer at a time into a {@link CharBuffer} that is
+     * reused for every entry, and lines are passed to a {@link LineConsumer} as
+     * views of that buffer, so reading an entry allocates nothing per line. Only
+     * a line that runs across the end of the buffer is copied, into a line
+     * buffer that grows to fit the longest line seen. Lines end with
+     * {@code \n}, {@code \r} or {@code \r\n}, like
+     * {@link BufferedReader#readLine()}.
+     * 
+     * <p>
+     * A reader isn't thread safe; {@link ZipCat} keeps one per thread.
+     */
+    static class LineReader {
+
+        /**
+         * Receives the lines read by a {@link LineReader}.
+         */
+        @FunctionalInterface
+        interface LineConsumer {
+
+            /**
+             * Receives a line.
+             * 
+             * @param line the line between its position and limit, without its
+             *             line terminator. It is backed by an array and only
+             *             valid until this method returns.
+             * @throws IOException if an I/O error occurs.
+             */
+            void accept(CharBuffer line) throws IOException;
+        }
+
+        private final CharsetDecoder decoder;
+
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+        private final CharBuffer view = chars.duplicate();
+
+        private CharBuffer line = CharBuffer.allocate(256);
+
+        private boolean skipLf;
+
+        /**
+         * Constructs a reader.
+         * 
+         * @param charset character set of the text to read.
+         * @param lenient if {@code true}, malformed or unmappable bytes are
+         *                replaced with the character set's replacement instead of
+         *                failing.
+         */
+        LineReader(Charset charset, boolean lenient) {
+            var action = lenient ? REPLACE : REPORT;
+            this.decoder = charset.newDecoder().onMalformedInput(action).onUnmappableCharacter(action);
+        }
+
+        /**
+         * Reads every line from a channel.
+         * 
+         * @param name     name of what is being read, for error messages.
+         * @param in       channel to read from.
+         * @param consumer receives each line in turn.
+         * @throws IOException if the text isn't valid in the reader's character
+         *                     set (and the reader isn't lenient), or an I/O
+         *                     error occurs.
+         */
+        void read(String name, ReadableByteChannel in, LineConsumer consumer) throws IOException {
+            decoder.reset();
+            bytes.clear();
+            chars.clear();
+            line.clear();
+            skipLf = false;
+            var endOfInput = false;
+            while (!endOfInput) {
+                endOfInput = in.read(bytes) == -1;
+                bytes.flip();
+                var result = decoder.decode(bytes, chars, endOfInput);
+                while (result.isOverflow()) {
+                    split(consumer);
+                    result = decoder.decode(bytes, chars, endOfInput);
+                }
+                if (result.isError()) {
+                    throw new IOException(format("%s isn't valid %s text (try --lenient)", name,
+                            decoder.charset()));
+                }
+                bytes.compact();
+            }
+            while (decoder.flush(chars).isOverflow()) {
+                split(consumer);
+            }
+            split(consumer);
+            if (line.position() > 0) {
+                consumer.accept(line.flip());
+            }
+        }
+
+        /**
+         * Passes the complete lines decoded into {@link #chars} to the consumer
+         * and keeps the start of an incomplete last line in {@link #line}.
+         */
+        private void split(LineConsumer consumer) throws IOException {
+            var array = chars.array();
+            var end = chars.position();
+            var start = 0;
+            for (var i = 0; i < end; i++) {
+                var c = array[i];
+                if (skipLf) {
+                    skipLf = false;
+                    if (c == '\n') {
+                        start = i + 1;
+                        continue;
+                    }
+                }
+                if (c == '\n' || c == '\r') {
+                    if (line.position() > 0) {
+                        append(array, start, i);
+                        consumer.accept(line.flip());
+                        line.clear();
+                    } else {
+                        consumer.accept(view.limit(i).position(start));
+                    }
+                    skipLf = c == '\r';
+                    start = i + 1;
+                }
+            }
+            append(array, start, end);
+            chars.clear();
+        }
+
+        private void append(char[] array, int start, int end) {
+            if (line.remaining() < end - start) {
+                var grown = CharBuffer.allocate(Math.max(line.capacity() * 2, line.position() + end - start));
+                line = grown.put(line.flip());
+            }
+            line.put(array, start, end - start);
+        }
+    }
+
+    /**
+     * The last lines of a stream, kept in a ring of reusable line buffers.
+     * 
+     * <p>
+     * The ring holds one slot per line to keep plus one for the line being read.
+     * When a line ends, the oldest slot is reused for the next line, so the ring
+     * never holds more than the requested number of lines. Slots are added as
+     * lines arrive, doubling up to the full number, so a short stream costs a
+     * few slots however many lines were asked for.
+     */
+    private static class LineRing {
+
+        private static final int INITIAL_SLOTS = 16;
+
+        private final int capacity;
+
+        private byte[][] lines;
+
+        private int[] lengths;
+
+        private int current;
+
+        private long completed;
+
+        LineRing(int size) {
+            this.capacity = size + 1;
+            this.lines = new byte[Math.min(capacity, INITIAL_SLOTS)][];
+            this.lengths = new int[lines.length];
+        }
+
+        /**
+         * Adds bytes to the ring.
+         * 
+         * @param bytes  array holding the bytes.
+         * @param length number of bytes to add from the start of the array.
+         */
+        void add(byte[] bytes, int length) {
+            var start = 0;
+            for (var i = 0; i < length; i++) {
+                if (bytes[i] == '\n') {
+                    append(bytes, start, i + 1 - start);
+                    start = i + 1;
+                    if (current + 1 == lines.length && lines.length < capacity) {
+                        grow();
+                    }
+                    current = (current + 1) % lines.length;
+                    lengths[current] = 0;
+                    completed++;
+                }
+            }
+            append(bytes, start, length - start);
+        }
+
+        /**
+         * Adds slots. Only called before the ring first wraps around, while the
+         * lines are still in slot order.
+         */
+        private void grow() {
+            var slots = (int) Math.min(capacity, 2L * lines.length);
+            lines = Arrays.copyOf(lines, slots);
+            lengths = Arrays.copyOf(lengths, slots);
+        }
+
+        private void append(byte[] bytes, int offset, int length) {
+            if (capacity == 1 || length == 0) {
+                return;
+            }
+            var line = lines[current];
+            var needed = lengths[current] + length;
+            if (line == null || line.length < needed) {
+                line = Arrays.copyOf(line == null ? new byte[0] : line, Math.max(needed, 2 * lengths[current]));
+                lines[current] = line;
+            }
+            System.arraycopy(bytes, offset, line, lengths[current], length);
+            lengths[current] = needed;
+        }
+
+        /**
+         * Writes the lines in the ring, oldest first.
+         * 
+         * @param out channel to write to.
+         * @throws IOException if an I/O error occurs.
+         */
+        void writeTo(WritableByteChannel out) throws IOException {
+            var size = capacity - 1;
+            var partial = lengths[current] > 0;
+            var count = (int) Math.min(completed, partial ? size - 1 : size);
+            for (var i = count; i >= (partial ? 0 : 1); i--) {
+                var slot = Math.floorMod(current - i, lines.length);
+                var buffer = ByteBuffer.wrap(lines[slot], 0, lengths[slot]);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * An entry read from a zip file's central directory.
+     * 
+     * @param name              entry name.
+     * @param flags             general purpose bit flags.
+     * @param method            compression method.
+     * @param dosTime           last modified date and time in MS-DOS format.
+     * @param crc               CRC-32 of the uncompressed data.
+     * @param compressedSize    compressed size in bytes.
+     * @param size              uncompressed size in bytes.
+     * @param localHeaderOffset offset of the local file header from the start of
+     *                          the archive.
+     */
+    record Entry(String name, int flags, int method, long dosTime, long crc, long compressedSize, long size,
+            long localHeaderOffset) {
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        /**
+         * Returns the last modified date and time, clamped to a valid date if
+         * the MS-DOS date and time fields are out of range.
+         * 
+         * @return the last modified date and time.
+         */
+        LocalDateTime modified() {
+            var date = (int) (dosTime >>> 16);
+            var time = (int) dosTime;
+            var month = YearMonth.of(((date >> 9) & 0x7f) + 1980, Math.min(Math.max((date >> 5) & 0x0f, 1), 12));
+            return month.atDay(Math.min(Math.max(date & 0x1f, 1), month.lengthOfMonth())).atTime(
+                    Math.min((time >> 11) & 0x1f, 23), Math.min((time >> 5) & 0x3f, 59), Math.min((time & 0x1f) * 2, 59));
+        }
+    }
+
+    /**
+     * Zip file read straight from its central directory.
+     * 
+     * <p>
+     * The archive occupies a range of bytes in a file, which is the whole file
+     * for an ordinary zip file and the data of a STORED entry for a nested one.
+     * All reads are positional reads on a shared {@link FileChannel}, so
+     * entries can be read from several threads at once.
+     */
+    static class Archive implements Container {
+
+        static final int STORED = 0;
+
+        static final int DEFLATED = 8;
+
+        private static final int END_SIG = 0x06054b50;
+
+        private static final int END_SIZE = 22;
+
+        private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+
+        private static final int ZIP64_END_SIG = 0x06064b50;
+
+        private static final int CENTRAL_SIG = 0x02014b50;
+
+        private static final int CENTRAL_SIZE = 46;
+
+        private static final int LOCAL_SIG = 0x04034b50;
+
+        private static final int LOCAL_SIZE = 30;
+
+        private static final int ZIP64_EXTRA_ID = 0x0001;
+
+        private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+        private final FileChannel ch;
+
+        private final long base;
+
+        private final Map<String, Entry> entries;
+
+        Archive(FileChannel ch, long base, Map<String, Entry> entries) {
+            this.ch = ch;
+            this.base = base;
+            this.entries = entries;
+        }
+
+        /**
+         * Reads the central directory of an archive.
+         * 
+         * @param ch     channel of the file the archive is in.
+         * @param base   offset of the archive in the file.
+         * @param length length of the archive in bytes.
+         * @return the archive.
+         * @throws IOException if the bytes aren't a zip file or an I/O error
+         *                     occurs.
+         */
+        static Archive open(FileChannel ch, long base, long length) throws IOException {
+            var tailLength = (int) Math.min(length, END_SIZE + 0xFFFF);
+            var tail = read(ch, base + length - tailLength, tailLength);
+            var end = tailLength - END_SIZE;
+            while (end >= 0 && tail.getInt(end) != END_SIG) {
+                end--;
+            }
+            if (end < 0) {
+                throw new ZipException("zip END header not found");
+            }
+            long count = Short.toUnsignedInt(tail.getShort(end + 10));
+            long cenSize = Integer.toUnsignedLong(tail.getInt(end + 12));
+            long cenOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+            if (count == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC) {
+                var locator = read(ch, base + length - tailLength + end - 20, 20);
+                if (locator.getInt(0) != ZIP64_LOCATOR_SIG) {
+                    throw new ZipException("zip64 END locator not found");
+                }
+                var zip64End = read(ch, base + locator.getLong(8), 56);
+                if (zip64End.getInt(0) != ZIP64_END_SIG) {
+                    throw new ZipException("zip64 END header not found");
+                }
+                count = zip64End.getLong(32);
+                cenSize = zip64End.getLong(40);
+                cenOffset = zip64End.getLong(48);
+            }
+            if (cenSize > Integer.MAX_VALUE || cenOffset + cenSize > length) {
+                throw new ZipException("invalid central directory");
+            }
+
+            var cen = read(ch, base + cenOffset, (int) cenSize);
+            var entries = new LinkedHashMap<String, Entry>();
+            var pos = 0;
+            for (var i = 0L; i < count; i++) {
+                if (cen.getInt(pos) != CENTRAL_SIG) {
+                    throw new ZipException("invalid central directory header");
+                }
+                var nameLength = Short.toUnsignedInt(cen.getShort(pos + 28));
+                var extraLength = Short.toUnsignedInt(cen.getShort(pos + 30));
+                var commentLength = Short.toUnsignedInt(cen.getShort(pos + 32));
+                var nameBytes = new byte[nameLength];
+                cen.get(pos + CENTRAL_SIZE, nameBytes);
+                var compressedSize = Integer.toUnsignedLong(cen.getInt(pos + 20));
+                var size = Integer.toUnsignedLong(cen.getInt(pos + 24));
+                var offset = Integer.toUnsignedLong(cen.getInt(pos + 42));
+
+                var extra = pos + CENTRAL_SIZE + nameLength;
+                var extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    var id = Short.toUnsignedInt(cen.getShort(extra));
+                    var dataLength = Short.toUnsignedInt(cen.getShort(extra + 2));
+                    if (id == ZIP64_EXTRA_ID) {
+                        var field = extra + 4;
+                        if (size == ZIP64_MAGIC) {
+                            size = cen.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = cen.getLong(field);
+                            field += 8;
+                        }
+                        if (offset == ZIP64_MAGIC) {
+                            offset = cen.getLong(field);
+                        }
+                    }
+                    extra += 4 + dataLength;
+                }
+
+                var entry = new Entry(new String(nameBytes, UTF_8), Short.toUnsignedInt(cen.getShort(pos + 8)),
+                        Short.toUnsignedInt(cen.getShort(pos + 10)), Integer.toUnsignedLong(cen.getInt(pos + 12)),
+                        Integer.toUnsignedLong(cen.getInt(pos + 16)), compressedSize, size, offset);
+                entries.put(entry.name(), entry);
+                pos = extraEnd + commentLength;
+            }
+            return new Archive(ch, base, entries);
+        }
+
+        /**
+         * Returns an entry.
+         * 
+         * @param name name of the entry.
+         * @return the entry.
+         * @throws NoSuchFileException if there is no entry with the name.
+         */
+        Entry entry(String name) throws NoSuchFileException {
+            var entry = entries.get(name);
+            if (entry == null) {
+                throw new NoSuchFileException(name);
+            }
+            return entry;
+        }
+
+        /**
+         * Returns the archive stored in one of this archive's entries.
+         * 
+         * @param entry a STORED entry.
+         * @return the nested archive, read in place.
+         * @throws IOException if the entry isn't a zip file or an I/O error
+         *                     occurs.
+         */
+        Archive nested(Entry entry) throws IOException {
+            return open(ch, dataOffset(entry), entry.size());
+        }
+
+        /**
+         * Returns the offset of an entry's data in the file.
+         * 
+         * @param entry the entry.
+         * @return the offset.
+         * @throws IOException if the local header is invalid or an I/O error
+         *                     occurs.
+         */
+        long dataOffset(Entry entry) throws IOException {
+            var local = read(ch, base + entry.localHeaderOffset(), LOCAL_SIZE);
+            if (local.getInt(0) != LOCAL_SIG) {
+                throw new ZipException(format("invalid local header for %s", entry.name()));
+            }
+            return base + entry.localHeaderOffset() + LOCAL_SIZE + Short.toUnsignedInt(local.getShort(26))
+                    + Short.toUnsignedInt(local.getShort(28));
+        }
+
+        /**
+         * Opens an entry's uncompressed data as a stream.
+         * 
+         * @param entry the entry.
+         * @return the stream.
+         * @throws IOException if the entry is encrypted or uses an unsupported
+         *                     compression method, or an I/O error occurs.
+         */
+        InputStream newInputStream(Entry entry) throws IOException {
+            if ((entry.flags() & 1) != 0) {
+                throw new ZipException(format("%s is encrypted", entry.name()));
+            }
+            var raw = Channels.newInputStream(newChannel(entry));
+            switch (entry.method()) {
+                case STORED:
+                    return raw;
+                case DEFLATED:
+                    var inflater = new Inflater(true);
+                    return new InflaterInputStream(raw, inflater, BUFFER_SIZE) {
+                        @Override
+                        public void close() throws IOException {
+                            super.close();
+                            inflater.end();
+                        }
+                    };
+                default:
+                    throw new ZipException(
+                            format("%s uses unsupported compression method %d", entry.name(), entry.method()));
+            }
+        }
+
+        /**
+         * Returns every entry, including directories, in central directory order.
+         * 
+         * @return the entries.
+         */
+        Collection<Entry> entries() {
+            return entries.values();
+        }
+
+        @Override
+        public List<String> names() {
+            return entries.values().stream().filter(e -> !e.isDirectory()).map(Entry::name).sorted()
+                    .collect(Collectors.toList());
+        }
+
+        /**
+         * Opens a channel over an entry's raw (possibly compressed) data.
+         * 
+         * @param entry the entry.
+         * @return the channel.
+         * @throws IOException if the local header is invalid or an I/O error
+         *                     occurs.
+         */
+        RangeChannel newChannel(Entry entry) throws IOException {
+            return new RangeChannel(ch, dataOffset(entry), entry.compressedSize());
+        }
+
+        /**
+         * Opens an entry for reading. STORED entries are read straight from the
+         * file through a {@link RangeChannel}.
+         */
+        @Override
+        public ReadableByteChannel open(String name) throws IOException {
+            var entry = entry(name);
+            if (entry.method() == STORED && (entry.flags() & 1) == 0) {
+                return newChannel(entry);
+            }
+            return Channels.newChannel(newInputStream(entry));
+        }
+
+        private static ByteBuffer read(FileChannel ch, long position, int length) throws IOException {
+            var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (ch.read(buffer, position + buffer.position()) < 0) {
+                    throw new ZipException("unexpected end of zip file");
+                }
+            }
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * Archive whose entries are looked up in an on-disk index instead of its
+     * central directory.
+     * 
+     * <p>
+     * The index is a file named after a hash of the zip file's absolute path. It
+     * holds the zip file's size and modification time, followed by one fixed
+     * size record per entry sorted by name (so an entry is found by binary
+     * search) and then the entry names. The index is memory mapped, so looking up
+     * one entry touches a handful of pages no matter how many entries the zip
+     * file has, and the entry's data is read from its local header on. The
+     * central directory is only read when there is no index or the zip file has
+     * changed since it was written.
+     */
+    static class IndexedArchive extends Archive {
+
+        private static final int MAGIC = 0x5a434958;
+
+        private static final int VERSION = 1;
+
+        private static final int HEADER_SIZE = 32;
+
+        private static final int RECORD_SIZE = 64;
+
+        private final ByteBuffer index;
+
+        private final int count;
+
+        private IndexedArchive(FileChannel ch, ByteBuffer index) {
+            super(ch, 0, Map.of());
+            this.index = index;
+            this.count = index.getInt(24);
+        }
+
+        /**
+         * Returns the archive for a zip file, read from its index if the index is
+         * up to date.
+         * 
+         * <p>
+         * If the index is missing, out of date or doesn't hold as many records
+         * and names as its header says, the central directory is read and a new
+         * index is written for the next run. Failing to write the index is
+         * reported but isn't an error.
+         * 
+         * @param ch      channel of the zip file.
+         * @param zipfile absolute path to the zip file.
+         * @return the archive.
+         * @throws IOException if an I/O error occurs.
+         */
+        static Archive open(FileChannel ch, Path zipfile) throws IOException {
+            var attrs = Files.readAttributes(zipfile, BasicFileAttributes.class);
+            var indexFile = indexFile(zipfile);
+            if (Files.isRegularFile(indexFile)) {
+                try (var indexCh = FileChannel.open(indexFile)) {
+                    var index = indexCh.map(FileChannel.MapMode.READ_ONLY, 0, indexCh.size())
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                    if (index.capacity() >= HEADER_SIZE && index.getInt(0) == MAGIC && index.getInt(4) == VERSION
+                            && index.getLong(8) == attrs.size()
+                            && index.getLong(16) == attrs.lastModifiedTime().toMillis() && isComplete(index)) {
+                        return new IndexedArchive(ch, index);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Unreadable or corrupt; read the central directory and write it again.
+                }
+            }
+
+            var archive = Archive.open(ch, 0, ch.size());
+            try {
+                write(indexFile, archive.entries.values(), attrs);
+            } catch (IOException e) {
+                System.err.printf("%s: warning: could not write index %s: %s%n", ZipCat.class.getSimpleName(),
+                        indexFile, e.getMessage());
+            }
+            return archive;
+        }
+
+        /**
+         * Returns whether an index is as long as its entry count says: the
+         * records, then the names, which are written in the same order as the
+         * records and so run from the end of the records to the end of the file.
+         */
+        private static boolean isComplete(ByteBuffer index) {
+            var count = index.getInt(24);
+            if (count < 0 || count > (index.capacity() - HEADER_SIZE) / RECORD_SIZE) {
+                return false;
+            }
+            var recordsEnd = HEADER_SIZE + (long) count * RECORD_SIZE;
+            if (count == 0) {
+                return recordsEnd == index.capacity();
+            }
+            var last = HEADER_SIZE + (count - 1) * RECORD_SIZE;
+            return index.getLong(HEADER_SIZE) == recordsEnd
+                    && index.getLong(last) + index.getInt(last + 8) == index.capacity();
+        }
+
+        private static Path indexFile(Path zipfile) throws IOException {
+            try {
+                var digest = MessageDigest.getInstance("SHA-256").digest(zipfile.toString().getBytes(UTF_8));
+                return Path.of(System.getProperty("user.home"), INDEX_DIR, HexFormat.of().formatHex(digest) + ".idx");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Writes an index to a temporary file and moves it into place, so a
+         * concurrent run never sees a partly written index.
+         */
+        private static void write(Path indexFile, Collection<Entry> entries, BasicFileAttributes attrs)
+                throws IOException {
+            var names = new byte[entries.size()][];
+            var sorted = entries.toArray(new Entry[0]);
+            var poolSize = 0L;
+            for (var i = 0; i < sorted.length; i++) {
+                names[i] = sorted[i].name().getBytes(UTF_8);
+                poolSize += names[i].length;
+            }
+            var order = new Integer[sorted.length];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(names[a], names[b]));
+
+            var recordsEnd = HEADER_SIZE + (long) sorted.length * RECORD_SIZE;
+            if (recordsEnd + poolSize > Integer.MAX_VALUE) {
+                throw new IOException("too many entries to index");
+            }
+            var index = ByteBuffer.allocate((int) (recordsEnd + poolSize)).order(ByteOrder.LITTLE_ENDIAN);
+            index.putInt(MAGIC).putInt(VERSION).putLong(attrs.size()).putLong(attrs.lastModifiedTime().toMillis())
+                    .putInt(sorted.length).putInt(0);
+            var nameOffset = recordsEnd;
+            for (var i : order) {
+                var entry = sorted[i];
+                index.putLong(nameOffset).putInt(names[i].length).putInt(entry.flags()).putInt(entry.method())
+                        .putInt(0).putLong(entry.dosTime()).putLong(entry.crc()).putLong(entry.compressedSize())
+                        .putLong(entry.size()).putLong(entry.localHeaderOffset());
+                nameOffset += names[i].length;
+            }
+            for (var i : order) {
+                index.put(names[i]);
+            }
+            index.flip();
+
+            Files.createDirectories(indexFile.getParent());
+            var tmp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+            try {
+                try (var indexCh = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    while (index.hasRemaining()) {
+                        indexCh.write(index);
+                    }
+                }
+                Files.move(tmp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        @Override
+        Entry entry(String name) throws NoSuchFileException {
+            var key = name.getBytes(UTF_8);
+            var low = 0;
+            var high = count - 1;
+            while (low <= high) {
+                var mid = (low + high) >>> 1;
+                var cmp = Arrays.compareUnsigned(name(mid), key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return record(mid);
+                }
+            }
+            throw new NoSuchFileException(name);
+        }
+
+        /**
+         * Returns every entry, including directories, sorted by name.
+         */
+        @Override
+        Collection<Entry> entries() {
+            var entries = new ArrayList<Entry>(count);
+            for (var i = 0; i < count; i++) {
+                entries.add(record(i));
+            }
+            return entries;
+        }
+
+        @Override
+        public List<String> names() {
+            var names = new ArrayList<String>(count);
+            for (var i = 0; i < count; i++) {
+                var name = new String(name(i), UTF_8);
+                if (!name.endsWith("/")) {
+                    names.add(name);
+                }
+            }
+            return names;
+        }
+
+        private byte[] name(int i) {
+            var record = HEADER_SIZE + i * RECORD_SIZE;
+            var name = new byte[index.getInt(record + 8)];
+            index.get((int) index.getLong(record), name);
+            return name;
+        }
+
+        private Entry record(int i) {
+            var record = HEADER_SIZE + i * RECORD_SIZE;
+            return new Entry(new String(name(i), UTF_8), index.getInt(record + 12), index.getInt(record + 16),
+                    index.getLong(record + 24), index.getLong(record + 32), index.getLong(record + 40),
+                    index.getLong(record + 48), index.getLong(record + 56));
+        }
+    }
+
+    /**
+     * Channel over a range of bytes in a file, read with positional reads so
+     * several can be open on the same channel at once.
+     * 
+     * <p>
+     * {@link #transferTo(WritableByteChannel)} hands the whole range to
+     * {@link FileChannel#transferTo}, which lets the operating system copy the
+     * bytes to the target (with {@code sendfile} when it's a file or pipe on
+     * Linux) without them being copied into the JVM. If the target accepts no
+     * bytes that way, the rest of the range is memory mapped and written from
+     * the mapping instead.
+     */
+    private static class RangeChannel implements ReadableByteChannel {
+
+        private final FileChannel ch;
+
+        private long position;
+
+        private long end;
+
+        private boolean open = true;
+
+        RangeChannel(FileChannel ch, long position, long length) {
+            this.ch = ch;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            var limit = dst.limit();
+            if (dst.remaining() > end - position) {
+                dst.limit(dst.position() + (int) (end - position));
+            }
+            try {
+                var n = ch.read(dst, position);
+                if (n < 0) {
+                    throw new ZipException("unexpected end of zip file");
+                }
+                position += n;
+                return n;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        /**
+         * Skips bytes at the start of the rest of the range.
+         * 
+         * @param n number of bytes to skip.
+         */
+        void skip(long n) {
+            position += Math.min(n, end - position);
+        }
+
+        /**
+         * Shortens the rest of the range.
+         * 
+         * @param length maximum number of bytes left to read.
+         */
+        void limit(long length) {
+            if (length < end - position) {
+                end = position + length;
+            }
+        }
+
+        /**
+         * Returns the number of bytes from the current position to the start of
+         * the last lines of the range, reading backwards from its end. A newline
+         * at the very end doesn't start another line.
+         * 
+         * @param lines number of lines.
+         * @return the number of bytes to skip.
+         * @throws IOException if an I/O error occurs.
+         */
+        long tailOffset(long lines) throws IOException {
+            if (lines == 0) {
+                return end - position;
+            }
+            var buffer = BUFFER.get();
+            var newlines = 0L;
+            var blockEnd = end;
+            while (blockEnd > position) {
+                var blockStart = Math.max(position, blockEnd - buffer.capacity());
+                buffer.clear().limit((int) (blockEnd - blockStart));
+                while (buffer.hasRemaining()) {
+                    if (ch.read(buffer, blockStart + buffer.position()) < 0) {
+                        throw new ZipException("unexpected end of zip file");
+                    }
+                }
+                for (var i = buffer.limit() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n' && blockStart + i != end - 1 && ++newlines == lines) {
+                        return blockStart + i + 1 - position;
+                    }
+                }
+                blockEnd = blockStart;
+            }
+            return 0;
+        }
+
+        /**
+         * Writes the rest of the range to a channel.
+         * 
+         * @param target the channel.
+         * @throws IOException if an I/O error occurs.
+         */
+        void transferTo(WritableByteChannel target) throws IOException {
+            while (position < end) {
+                var n = ch.transferTo(position, end - position, target);
+                if (n <= 0) {
+                    var mapped = ch.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(end - position, Integer.MAX_VALUE));
+                    while (mapped.hasRemaining()) {
+                        target.write(mapped);
+                    }
+                    n = mapped.capacity();
+                }
+                position += n;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    /**
+     * Formats of the files ZipCat reads, told apart by their first bytes.
+     */
+    enum Format {
+
+        ZIP, TAR, GZIP, BZIP2, XZ, ZSTD;
+
+        /**
+         * Number of bytes needed to tell every format apart: a tar file's magic
+         * ends 262 bytes in.
+         */
+        static final int HEAD_SIZE = 262;
+
+        /**
+         * Returns the format of a file starting with the given bytes. Anything
+         * not recognized is assumed to be a zip file, since a zip file (a self
+         * extracting one, say) can start with anything.
+         * 
+         * @param head the first {@link #HEAD_SIZE} bytes of the file, or all of
+         *             it if it's shorter.
+         * @return the format.
+         */
+        static Format of(byte[] head) {
+            if (startsWith(head, 0, 0x1f, 0x8b)) {
+                return GZIP;
+            } else if (startsWith(head, 257, 'u', 's', 't', 'a', 'r')) {
+                return TAR;
+            } else if (startsWith(head, 0, 'B', 'Z', 'h')) {
+                return BZIP2;
+            } else if (startsWith(head, 0, 0xfd, '7', 'z', 'X', 'Z', 0)) {
+                return XZ;
+            } else if (startsWith(head, 0, 0x28, 0xb5, 0x2f, 0xfd)) {
+                return ZSTD;
+            }
+            return ZIP;
+        }
+
+        /**
+         * Returns the format of a stream without consuming any of it.
+         * 
+         * @param in the stream, which must support {@link InputStream#mark(int)}.
+         * @return the format.
+         * @throws IOException if an I/O error occurs.
+         */
+        static Format of(InputStream in) throws IOException {
+            in.mark(HEAD_SIZE);
+            var head = in.readNBytes(HEAD_SIZE);
+            in.reset();
+            return of(head);
+        }
+
+        /**
+         * Returns the format of a file.
+         * 
+         * @param path the file.
+         * @return the format.
+         * @throws IOException if an I/O error occurs.
+         */
+        static Format of(Path path) throws IOException {
+            try (var in = Files.newInputStream(path)) {
+                return of(in.readNBytes(HEAD_SIZE));
+            }
+        }
+
+        private static boolean startsWith(byte[] head, int offset, int... magic) {
+            if (head.length < offset + magic.length) {
+                return false;
+            }
+            for (var i = 0; i < magic.length; i++) {
+                if ((head[offset + i] & 0xff) != magic[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * An archive read front to back, one entry at a time, like
+     * {@link ZipInputStream}.
+     * 
+     * <p>
+     * Reading from the stream reads the data of the current entry. Entries are
+     * described by {@link ZipEntry} whatever the format, so the same code can
+     * match, print and list entries of zip, tar and gzip files. As with
+     * {@link ZipInputStream}, an entry's size and CRC-32 may only be known once
+     * {@link #closeEntry()} has read it through.
+     */
+    abstract static class EntryStream extends InputStream {
+
+        /**
+         * Reads the next entry's header and positions the stream at the start of
+         * its data.
+         * 
+         * @return the entry, or {@code null} if there are no more entries.
+         * @throws IOException if an I/O error occurs.
+         */
+        abstract ZipEntry getNextEntry() throws IOException;
+
+        /**
+         * Reads the rest of the current entry, filling in its size and CRC-32.
+         * 
+         * @throws IOException if an I/O error occurs.
+         */
+        abstract void closeEntry() throws IOException;
+
+        /**
+         * Returns an entry name or glob pattern as given on the command line in
+         * the form this stream's entry names take.
+         * 
+         * @param name the name or pattern.
+         * @return the name or pattern to match entry names with.
+         */
+        String entryName(String name) {
+            return name;
+        }
+
+        /**
+         * Opens a stream of the entries in a zip, tar, gzipped tar or gzip file.
+         * 
+         * <p>
+         * The format is found from the first bytes of the stream. A gzip file
+         * that doesn't hold a tar file holds one entry, named as recorded in the
+         * gzip header or else after the file without its {@code .gz} suffix.
+         * 
+         * @param in   the stream, which must support {@link InputStream#mark(int)}.
+         * @param name name of the file, used to name the entry of a gzip file.
+         * @return the entries.
+         * @throws IOException if the format needs a native library (bzip2, xz and
+         *                     zstd) or an I/O error occurs.
+         */
+        static EntryStream open(InputStream in, String name) throws IOException {
+            var format = Format.of(in);
+            switch (format) {
+                case ZIP:
+                    return new ZipEntryStream(new ZipInputStream(in));
+                case TAR:
+                    return new TarEntryStream(in);
+                case GZIP:
+                    return GzipEntryStream.open(in, name);
+                default:
+                    throw new IOException(format("%s is compressed with %s, which isn't supported; decompress it and"
+                            + " pipe it to standard input instead", name, format.name().toLowerCase(Locale.ROOT)));
+            }
+        }
+    }
+
+    /**
+     * Entries of a zip file read with {@link ZipInputStream}.
+     */
+    private static class ZipEntryStream extends EntryStream {
+
+        private final ZipInputStream in;
+
+        ZipEntryStream(ZipInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        ZipEntry getNextEntry() throws IOException {
+            return in.getNextEntry();
+        }
+
+        @Override
+        void closeEntry() throws IOException {
+            in.closeEntry();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Entries of a tar file.
+     * 
+     * <p>
+     * Reads POSIX (ustar and pax) and GNU tar files, including long names in
+     * pax {@code path} records and GNU {@code L} entries, and sizes over 8 GiB in
+     * pax {@code size} records and GNU base-256 numbers. Only regular files and
+     * directories are returned; links and special files are skipped. Tar files
+     * have no CRC-32s, so one is computed as each entry is read.
+     */
+    private static class TarEntryStream extends EntryStream {
+
+        private static final int BLOCK_SIZE = 512;
+
+        private static final int MAX_EXTENDED_HEADER = 1024 * 1024;
+
+        private final InputStream in;
+
+        private final byte[] header = new byte[BLOCK_SIZE];
+
+        private final CRC32 crc = new CRC32();
+
+        private ZipEntry entry;
+
+        private long remaining;
+
+        private long padding;
+
+        TarEntryStream(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Drops any leading {@code ./}, which tar adds to the names of files
+         * archived from the current directory.
+         */
+        @Override
+        String entryName(String name) {
+            while (name.startsWith("./")) {
+                name = name.substring(2);
+            }
+            return name;
+        }
+
+        @Override
+        ZipEntry getNextEntry() throws IOException {
+            skipEntry();
+            String longName = null;
+            var paxSize = -1L;
+            while (true) {
+                if (in.readNBytes(header, 0, BLOCK_SIZE) < BLOCK_SIZE || isZeros(header)) {
+                    entry = null;
+                    return null;
+                }
+                verifyChecksum();
+                var type = (char) header[156];
+                var size = number(124, 12);
+                var name = longName != null ? longName : name();
+                if (paxSize >= 0) {
+                    size = paxSize;
+                }
+                remaining = size;
+                padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+                switch (type) {
+                    case 'x':
+                        for (var record : extendedHeader(size).split("\n")) {
+                            var keyValue = record.substring(record.indexOf(' ') + 1);
+                            if (keyValue.startsWith("path=")) {
+                                longName = keyValue.substring(5);
+                            } else if (keyValue.startsWith("size=")) {
+                                paxSize = Long.parseLong(keyValue.substring(5));
+                            }
+                        }
+                        break;
+                    case 'L':
+                        var nameBytes = extendedHeader(size);
+                        var end = nameBytes.indexOf('\0');
+                        longName = end < 0 ? nameBytes : nameBytes.substring(0, end);
+                        break;
+                    case '0':
+                    case '\0':
+                    case '7':
+                    case '5':
+                        name = entryName(name);
+                        if (name.isEmpty()) {
+                            skipEntry();
+                            longName = null;
+                            paxSize = -1;
+                            break;
+                        }
+                        if (type == '5' && !name.endsWith("/")) {
+                            name += "/";
+                        }
+                        entry = new ZipEntry(name);
+                        entry.setMethod(ZipEntry.STORED);
+                        entry.setSize(size);
+                        entry.setCompressedSize(size);
+                        entry.setTime(number(136, 12) * 1000);
+                        crc.reset();
+                        return entry;
+                    default:
+                        skipEntry();
+                        longName = null;
+                        paxSize = -1;
+                        break;
+                }
+            }
+        }
+
+        @Override
+        void closeEntry() throws IOException {
+            var buffer = new byte[BUFFER_SIZE];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // Read to the end to compute the CRC-32.
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (entry == null || remaining == 0) {
+                if (entry != null) {
+                    entry.setCrc(crc.getValue());
+                }
+                return -1;
+            }
+            var n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new EOFException(format("%s is truncated", entry.getName()));
+            }
+            crc.update(b, off, n);
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Skips the rest of the current entry's data and its padding.
+         */
+        private void skipEntry() throws IOException {
+            in.skipNBytes(remaining + padding);
+            remaining = 0;
+            padding = 0;
+        }
+
+        private String extendedHeader(long size) throws IOException {
+            if (size > MAX_EXTENDED_HEADER) {
+                throw new IOException(format("tar extended header of %d bytes is too big", size));
+            }
+            var text = new String(in.readNBytes((int) size), UTF_8);
+            remaining = 0;
+            skipEntry();
+            return text;
+        }
+
+        private String name() {
+            var name = string(0, 100);
+            var prefix = startsWith(257, "ustar") ? string(345, 155) : "";
+            return prefix.isEmpty() ? name : prefix + '/' + name;
+        }
+
+        private String string(int offset, int length) {
+            var end = offset;
+            while (end < offset + length && header[end] != 0) {
+                end++;
+            }
+            return new String(header, offset, end - offset, UTF_8);
+        }
+
+        private boolean startsWith(int offset, String magic) {
+            return string(offset, magic.length()).equals(magic);
+        }
+
+        /**
+         * Returns an octal number, or a GNU base-256 number if its first byte has
+         * its high bit set.
+         */
+        private long number(int offset, int length) throws IOException {
+            var value = 0L;
+            var end = offset + length;
+            if ((header[offset] & 0x80) != 0) {
+                for (var i = offset + 1; i < end; i++) {
+                    value = value << 8 | header[i] & 0xff;
+                }
+                return value;
+            }
+            var i = offset;
+            while (i < end && header[i] == ' ') {
+                i++;
+            }
+            for (; i < end && header[i] >= '0' && header[i] <= '7'; i++) {
+                value = value << 3 | header[i] - '0';
+            }
+            if (i < end && header[i] != ' ' && header[i] != 0) {
+                throw new IOException(format("bad number in tar header at offset %d", offset));
+            }
+            return value;
+        }
+
+        private void verifyChecksum() throws IOException {
+            var sum = 0L;
+            for (var i = 0; i < BLOCK_SIZE; i++) {
+                sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+            }
+            if (sum != number(148, 8)) {
+                throw new IOException("bad tar header checksum");
+            }
+        }
+
+        private static boolean isZeros(byte[] block) {
+            for (var b : block) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The single entry of a gzip file that doesn't hold a tar file.
+     */
+    private static class GzipEntryStream extends EntryStream {
+
+        /**
+         * Number of bytes of the gzip header searched for the file name.
+         */
+        private static final int HEADER_SIZE = 1024;
+
+        private final InputStream in;
+
+        private final long[] compressed;
+
+        private final ZipEntry entry;
+
+        private final CRC32 crc = new CRC32();
+
+        private long size;
+
+        private boolean started;
+
+        private GzipEntryStream(InputStream in, long[] compressed, ZipEntry entry) {
+            this.in = in;
+            this.compressed = compressed;
+            this.entry = entry;
+        }
+
+        /**
+         * Opens a gzip file, returning a {@link TarEntryStream} if it holds a tar
+         * file.
+         * 
+         * @param in   the stream, which must support {@link InputStream#mark(int)}.
+         * @param name name of the file.
+         * @return the entries.
+         * @throws IOException if an I/O error occurs.
+         */
+        static EntryStream open(InputStream in, String name) throws IOException {
+            in.mark(HEADER_SIZE);
+            var header = ByteBuffer.wrap(in.readNBytes(HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            in.reset();
+            var compressed = new long[1];
+            var gzip = new BufferedInputStream(new GZIPInputStream(new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    var b = super.read();
+                    compressed[0] += b == -1 ? 0 : 1;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    var n = super.read(b, off, len);
+                    compressed[0] += Math.max(n, 0);
+                    return n;
+                }
+            }, BUFFER_SIZE), BUFFER_SIZE);
+            if (Format.of(gzip) == Format.TAR) {
+                return new TarEntryStream(gzip);
+            }
+            var entry = new ZipEntry(gzipName(header, name));
+            entry.setMethod(ZipEntry.DEFLATED);
+            entry.setTime(Integer.toUnsignedLong(header.getInt(4)) * 1000);
+            return new GzipEntryStream(gzip, compressed, entry);
+        }
+
+        /**
+         * Returns the name recorded in a gzip header, or the file name without
+         * its {@code .gz} suffix if there isn't one.
+         */
+        private static String gzipName(ByteBuffer header, String name) {
+            var flags = header.limit() > 3 ? header.get(3) : 0;
+            var offset = 10;
+            if ((flags & 4) != 0 && header.limit() >= offset + 2) {
+                offset += 2 + Short.toUnsignedInt(header.getShort(offset));
+            }
+            if ((flags & 8) != 0) {
+                for (var end = offset; end < header.limit(); end++) {
+                    if (header.get(end) == 0) {
+                        var bytes = new byte[end - offset];
+                        header.get(offset, bytes);
+                        return new String(bytes, ISO_8859_1);
+                    }
+                }
+            }
+            return name.endsWith(".gz") ? name.substring(0, name.length() - 3) : name;
+        }
+
+        @Override
+        ZipEntry getNextEntry() throws IOException {
+            if (started) {
+                closeEntry();
+                return null;
+            }
+            started = true;
+            return entry;
+        }
+
+        @Override
+        void closeEntry() throws IOException {
+            var buffer = new byte[BUFFER_SIZE];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // Read to the end to learn the sizes and CRC-32.
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var n = in.read(b, off, len);
+            if (n == -1) {
+                entry.setSize(size);
+                entry.setCompressedSize(compressed[0]);
+                entry.setCrc(crc.getValue());
+                return -1;
+            }
+            crc.update(b, off, n);
+            size += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Channel that passes the bytes written to it to another thread in chunks
+     * through a bounded queue.
+     * 
+     * <p>
+     * Writes block once {@value ZipCat#QUEUED_CHUNKS} chunks are waiting to be
+     * drained, which keeps the memory used by an entry that is read ahead of its
+     * turn bounded. The first chunk is only allocated when the first byte is
+     * written, so a queue waiting for its entry to start costs next to nothing.
+     */
+    private static class ChunkQueue implements WritableByteChannel {
+
+        private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+        private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+
+        private ByteBuffer chunk;
+
+        private volatile Exception failure;
+
+        private boolean open = true;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            var written = src.remaining();
+            while (src.hasRemaining()) {
+                if (chunk == null) {
+                    chunk = ByteBuffer.allocate(BUFFER_SIZE);
+                } else if (!chunk.hasRemaining()) {
+                    putChunk();
+                    chunk = ByteBuffer.allocate(BUFFER_SIZE);
+                }
+                var n = Math.min(src.remaining(), chunk.remaining());
+                chunk.put(src.slice().limit(n));
+                src.position(src.position() + n);
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Queue any bytes not yet queued followed by the end of the entry.
+         */
+        @Override
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                if (chunk != null && chunk.position() > 0) {
+                    putChunk();
+                }
+                put(END);
+            }
+        }
+
+        /**
+         * End the entry with an error that is rethrown by {@link #drainTo}.
+         * 
+         * @param e the error.
+         */
+        void fail(Exception e) {
+            failure = e;
+            open = false;
+            try {
+                put(END);
+            } catch (IOException ignored) {
+                // Interrupted because the pool is shutting down.
+            }
+        }
+
+        /**
+         * Write every chunk of the entry to the given channel, blocking until the
+         * entry has been read completely.
+         * 
+         * @param out channel to write to.
+         * @throws IOException if reading the entry failed or an I/O error occurs.
+         */
+        void drainTo(WritableByteChannel out) throws IOException {
+            try {
+                for (var next = chunks.take(); next != END; next = chunks.take()) {
+                    while (next.hasRemaining()) {
+                        out.write(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+        }
+
+        private void putChunk() throws IOException {
+            chunk.flip();
+            put(chunk);
+            chunk = null;
+        }
+
+        private void put(ByteBuffer next) throws IOException {
+            try {
+                chunks.put(next);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
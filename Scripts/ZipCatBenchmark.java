@@ -0,0 +1,340 @@
+/*bin/mkdir -p /tmp/.java/classes 2> /dev/null
+if [[ "$#" -lt 1 ]]; then
+  cat <<ENDOFHELP
+Runs JMH benchmarks of the ways ZipCat can read entries from a zip file.
+
+Usage: bash $(basename $0) <jmh-classpath> [jmh-options]
+
+<jmh-classpath>  Classpath with jmh-core, jmh-generator-annprocess, jopt-simple
+                 and commons-math3 jars.
+[jmh-options]    JMH options (run with -h for details).
+ENDOFHELP
+  exit 1
+fi
+
+# Compile ZipCat and the benchmarks, generating the JMH harness.
+#
+JMH_CP=$1
+shift
+javac -cp "$JMH_CP" -d /tmp/.java/classes $(dirname $0)/ZipCat.java $0
+
+# Run the benchmarks only if compilation succeeds, reporting allocation rates.
+#
+if [[ $? -eq 0 ]]; then
+  java -cp "$JMH_CP:/tmp/.java/classes" org.openjdk.jmh.Main $(basename ${0%.*}) -prof gc "$@"
+fi
+exit
+*/
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the ways {@link ZipCat} can read every entry of a zip file.
+ * 
+ * <p>
+ * Each trial writes a synthetic archive of log-like text to a temporary
+ * directory, shaped by the {@code shape} parameter (many small entries or a
+ * few huge ones) and compressed according to the {@code method} parameter
+ * (STORED or DEFLATED). Every benchmark reads all of the archive's entries and
+ * returns the number of bytes or lines read so that nothing is optimized away.
+ * Scores are throughput: how many times a second the whole archive is read.
+ * Output that ZipCat would write to {@link System#out} is written to
+ * {@code /dev/null} instead.
+ * 
+ * <p>
+ * The launcher header passes {@code -prof gc} to JMH, so allocation rates
+ * ({@code gc.alloc.rate.norm} is bytes allocated per operation) are reported
+ * next to the scores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ZipCatBenchmark {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number and size of the entries in the archive.
+     */
+    public enum Shape {
+
+        SMALL(10_000, 2 * 1024), HUGE(2, 64 * 1024 * 1024);
+
+        private final int entries;
+
+        private final int entrySize;
+
+        Shape(int entries, int entrySize) {
+            this.entries = entries;
+            this.entrySize = entrySize;
+        }
+    }
+
+    @Param({ "SMALL", "HUGE" })
+    public Shape shape;
+
+    @Param({ "STORED", "DEFLATED" })
+    public String method;
+
+    private Path dir;
+
+    private Path zipfile;
+
+    private List<String> names;
+
+    private FileChannel devNull;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+
+    /**
+     * Writes the archive for the trial.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    @Setup(Level.Trial)
+    public void writeArchive() throws IOException {
+        dir = Files.createTempDirectory(ZipCatBenchmark.class.getSimpleName());
+        zipfile = dir.resolve("bench.zip");
+        names = new ArrayList<>(shape.entries);
+        var random = new Random(42);
+        var stored = "STORED".equals(method);
+        try (var zip = new ZipOutputStream(Files.newOutputStream(zipfile))) {
+            for (var i = 0; i < shape.entries; i++) {
+                var name = String.format("logs/%05d/server.log", i);
+                var data = logText(random, shape.entrySize);
+                var entry = new ZipEntry(name);
+                if (stored) {
+                    var crc = new CRC32();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCompressedSize(data.length);
+                    entry.setCrc(crc.getValue());
+                } else {
+                    entry.setMethod(ZipEntry.DEFLATED);
+                }
+                zip.putNextEntry(entry);
+                zip.write(data);
+                zip.closeEntry();
+                names.add(name);
+            }
+        }
+        devNull = FileChannel.open(Path.of("/dev/null"), StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Deletes the archive.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    @TearDown(Level.Trial)
+    public void deleteArchive() throws IOException {
+        devNull.close();
+        Files.deleteIfExists(zipfile);
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * The original ZipCat path: the zip file system provider and
+     * {@link Files#lines(Path)}, counting the lines.
+     * 
+     * @return the number of lines read.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Benchmark
+    public long filesLines() throws IOException {
+        var lines = 0L;
+        try (var fs = FileSystems.newFileSystem(zipfile, Map.of())) {
+            for (var name : names) {
+                try (var stream = Files.lines(fs.getPath(name))) {
+                    lines += stream.count();
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * ZipCat's default text mode, decoding and printing every line of entries
+     * read through the zip file system provider, as {@code main} does.
+     * 
+     * @return the number of entries printed.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Benchmark
+    public int zipCatText() throws IOException {
+        try (var fs = FileSystems.newFileSystem(zipfile, Map.of())) {
+            var zipfs = new ZipCat.ZipFsContainer(fs);
+            new ZipCat(false, false, false, null, null, StandardCharsets.UTF_8, false, devNull).catAll(zipfs, names, 1);
+        }
+        return names.size();
+    }
+
+    /**
+     * ZipCat's text mode over the central directory reader, as used with
+     * {@code -I} and for STORED nested archives, decoding and printing every
+     * line.
+     * 
+     * @return the number of entries printed.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Benchmark
+    public int zipCatTextArchive() throws IOException {
+        try (var ch = FileChannel.open(zipfile)) {
+            var archive = ZipCat.Archive.open(ch, 0, ch.size());
+            new ZipCat(false, false, false, null, null, StandardCharsets.UTF_8, false, devNull).catAll(archive, names, 1);
+        }
+        return names.size();
+    }
+
+    /**
+     * Raw channel copy through the zip file system provider with a reusable
+     * direct buffer.
+     * 
+     * @return the number of bytes read.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Benchmark
+    public long zipFsChannelCopy() throws IOException {
+        var total = 0L;
+        try (var fs = FileSystems.newFileSystem(zipfile, Map.of())) {
+            for (var name : names) {
+                try (var in = Files.newByteChannel(fs.getPath(name))) {
+                    for (var n = in.read(buffer.clear()); n != -1; n = in.read(buffer.clear())) {
+                        total += n;
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * ZipCat's {@code -b} mode: the central directory reader, with STORED
+     * entries transferred by the operating system.
+     * 
+     * @return the number of entries copied.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Benchmark
+    public int zipCatBinary() throws IOException {
+        try (var ch = FileChannel.open(zipfile)) {
+            var archive = ZipCat.Archive.open(ch, 0, ch.size());
+            new ZipCat(true, false, false, null, null, StandardCharsets.UTF_8, false, devNull).catAll(archive, names, 1);
+        }
+        return names.size();
+    }
+
+    /**
+     * Memory mapped access: the whole archive is mapped, STORED entries are read
+     * from the mapping and DEFLATED entries are inflated straight from it.
+     * 
+     * @return the number of bytes read.
+     * @throws IOException          if an I/O error occurs.
+     * @throws DataFormatException if an entry can't be inflated.
+     */
+    @Benchmark
+    public long mappedArchive() throws IOException, DataFormatException {
+        var total = 0L;
+        var inflater = new Inflater(true);
+        try (var ch = FileChannel.open(zipfile)) {
+            var mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            var archive = ZipCat.Archive.open(ch, 0, ch.size());
+            for (var name : names) {
+                var entry = archive.entry(name);
+                var data = mapped.slice((int) archive.dataOffset(entry), (int) entry.compressedSize());
+                if (entry.method() == ZipCat.Archive.STORED) {
+                    while (data.hasRemaining()) {
+                        var n = Math.min(data.remaining(), buffer.capacity());
+                        buffer.clear().put(data.slice().limit(n));
+                        data.position(data.position() + n);
+                        total += n;
+                    }
+                } else {
+                    inflater.reset();
+                    inflater.setInput(data);
+                    while (!inflater.finished()) {
+                        total += inflater.inflate(buffer.clear());
+                    }
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return total;
+    }
+
+    /**
+     * {@link ZipFile}, reading every entry's stream into a reusable array.
+     * 
+     * @return the number of bytes read.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Benchmark
+    public long zipFile() throws IOException {
+        var total = 0L;
+        try (var zip = new ZipFile(zipfile.toFile())) {
+            for (var name : names) {
+                try (var in = zip.getInputStream(zip.getEntry(name))) {
+                    for (var n = in.read(bytes); n != -1; n = in.read(bytes)) {
+                        total += n;
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns lines of log-like text, which compress about as well as real
+     * logs.
+     */
+    private static byte[] logText(Random random, int size) {
+        var text = new StringBuilder(size + 128);
+        while (text.length() < size) {
+            text.append(String.format("2026-%02d-%02dT%02d:%02d:%02d.%03d %-5s [worker-%d] com.example.Service%d - "
+                    + "request %d took %d ms%n", random.nextInt(12) + 1, random.nextInt(28) + 1, random.nextInt(24),
+                    random.nextInt(60), random.nextInt(60), random.nextInt(1000),
+                    random.nextInt(10) == 0 ? "WARN" : "INFO", random.nextInt(32), random.nextInt(8),
+                    random.nextInt(1_000_000), random.nextInt(5000)));
+        }
+        text.setLength(size - 1);
+        return text.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}